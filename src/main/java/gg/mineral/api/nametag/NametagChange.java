@@ -0,0 +1,35 @@
+package gg.mineral.api.nametag;
+
+import javax.annotation.Nullable;
+
+import lombok.Value;
+
+/**
+ * An applied change of a player's nametag, as emitted by
+ * {@link NametagGroup#getChanges()}.
+ */
+@Value
+public class NametagChange {
+    /**
+     * The position of this change in the group's change stream. Consecutive
+     * changes have consecutive sequence numbers, so a gap means changes were
+     * dropped for a subscriber that fell behind.
+     */
+    long sequence;
+    String player;
+    /** The new prefix, or {@code null} if the nametag was cleared. */
+    @Nullable
+    String prefix;
+    /** The new suffix, or {@code null} if the nametag was cleared. */
+    @Nullable
+    String suffix;
+
+    /**
+     * Returns whether the player's nametag was cleared.
+     * 
+     * @return {@code true} if the nametag was cleared.
+     */
+    public boolean isClear() {
+        return prefix == null;
+    }
+}
@@ -1,34 +1,137 @@
 package gg.mineral.api.nametag;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Flow;
 
+import javax.annotation.Nullable;
+
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 
+import io.isles.nametagapi.LogicalTeam;
 import io.isles.nametagapi.NametagManager;
-import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import io.isles.nametagapi.NametagPlugin;
+import io.isles.nametagapi.NametagRecorder;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.val;
 
 public class NametagGroup {
     @Getter
     private final NametagManager manager;
+    /** The players viewing this group, keyed by unique id. */
+    private final Map<UUID, Player> players = NametagManager.createPlayerMap();
+    /** The group this group inherits its teams and nametags from. */
+    @Getter
+    @Nullable
+    private final NametagGroup parent;
+    private final Collection<NametagGroup> children = new ObjectArrayList<>();
     @Getter
-    private final Collection<Player> players = new ObjectOpenHashSet<>();
     private boolean deleted = false;
+    @Getter
+    private String persistenceKey;
+    /**
+     * Whether the nametag of a player is cleared in this group when the
+     * player quits.
+     */
+    @Getter
+    @Setter
+    private boolean clearOnQuit = true;
+    /** The world this group is scoped to, or {@code null} for none. */
+    @Nullable
+    private UUID world;
+    /** The time at which the last player left this group. */
+    @Getter
+    private long emptySince = System.currentTimeMillis();
 
     public NametagGroup(Player... players) {
+        this(null, players);
+    }
+
+    /**
+     * Creates a group that inherits the teams and nametags of the given
+     * parent, and only stores the nametags that are set in this group.
+     * Players moving between related groups only receive the teams and
+     * memberships that differ between them.
+     * 
+     * @param parent  The group to inherit from, or {@code null} for none.
+     * @param players The players to add.
+     */
+    public NametagGroup(@Nullable NametagGroup parent, Player... players) {
+        if (parent != null && parent.deleted)
+            throw new IllegalStateException("The parent group has been deleted.");
+
+        this.parent = parent;
+
+        if (parent != null)
+            parent.children.add(this);
+
         this.manager = new NametagManager(this);
         this.manager.load();
+        NametagGroupRegistry.register(this);
+        NametagRecorder.groupCreated(this);
         this.add(players);
     }
 
+    /**
+     * Returns the players viewing this group.
+     * 
+     * @return An unmodifiable view of the players.
+     */
+    public Collection<Player> getPlayers() {
+        return Collections.unmodifiableCollection(players.values());
+    }
+
+    /**
+     * Returns whether the given player is viewing this group.
+     * 
+     * @param player The player to check.
+     * @return {@code true} if the player is in this group.
+     */
+    public boolean contains(Player player) {
+        return players.containsKey(player.getUniqueId());
+    }
+
+    /**
+     * Scopes this group to the given world. Players leaving the world are
+     * removed from the group.
+     * 
+     * @param world The world to scope to, or {@code null} to remove the scope.
+     */
+    public void setWorld(@Nullable World world) {
+        this.world = world == null ? null : world.getUID();
+    }
+
+    /**
+     * Returns whether this group is scoped to a world other than the given
+     * one.
+     * 
+     * @param world The world to check.
+     * @return {@code true} if players in the given world do not belong here.
+     */
+    boolean isOutsideScope(World world) {
+        return this.world != null && !this.world.equals(world.getUID());
+    }
+
     public void add(Player... players) {
         if (deleted)
             throw new IllegalStateException("This group has been deleted.");
 
         for (val player : players) {
-            this.players.add(player);
-            manager.sendTeamsToPlayer(player);
+            NametagRecorder.playerAdded(this, player);
+            val current = getRoot().findGroupOf(player);
+
+            if (current != null && current != this)
+                move(player, current);
+            else {
+                this.players.put(player.getUniqueId(), player);
+                manager.sendTeamsToPlayer(player);
+            }
+
             manager.clear(player.getName());
         }
     }
@@ -37,16 +140,195 @@ public class NametagGroup {
         if (deleted)
             return;
 
+        NametagRecorder.playerRemoved(this, player);
+
         manager.clear(player.getName());
         manager.removeAllTeamsForPlayer(player);
-        players.remove(player);
+
+        for (var ancestor = parent; ancestor != null; ancestor = ancestor.parent)
+            ancestor.manager.sendRemoveTeamsToPlayer(player);
+
+        if (players.remove(player.getUniqueId()) != null && players.isEmpty())
+            emptySince = System.currentTimeMillis();
+    }
+
+    /**
+     * Drops a player that quit the server, without sending packets to them.
+     * 
+     * @param player The player that quit.
+     */
+    void purge(Player player) {
+        if (deleted)
+            return;
+
+        if (players.remove(player.getUniqueId()) != null && players.isEmpty())
+            emptySince = System.currentTimeMillis();
+
+        for (var group = this; group != null; group = group.parent)
+            group.manager.forgetPlayer(player);
+
+        if (clearOnQuit) {
+            manager.discardPlayerState(player.getName());
+            manager.clear(player.getName());
+        }
+    }
+
+    /**
+     * Returns the groups that inherit from this group.
+     * 
+     * @return An unmodifiable view of the child groups.
+     */
+    public Collection<NametagGroup> getChildren() {
+        return Collections.unmodifiableCollection(children);
+    }
+
+    /**
+     * Moves a player from a related group into this group. The teams of the
+     * groups the player leaves are removed, and the player is then sent only
+     * what their client is missing for this group.
+     * 
+     * @param player The player to move.
+     * @param from   The group the player is currently in.
+     */
+    private void move(Player player, NametagGroup from) {
+        val ancestor = commonAncestor(from);
+
+        for (var group = from; group != ancestor; group = group.parent)
+            group.manager.unwindPlayer(player);
+
+        if (from.players.remove(player.getUniqueId()) != null && from.players.isEmpty())
+            from.emptySince = System.currentTimeMillis();
+
+        this.players.put(player.getUniqueId(), player);
+        manager.sendTeamsToPlayer(player);
+    }
+
+    private NametagGroup commonAncestor(NametagGroup other) {
+        for (var group = this; group != null; group = group.parent)
+            for (var candidate = other; candidate != null; candidate = candidate.parent)
+                if (candidate == group)
+                    return group;
+
+        throw new IllegalArgumentException("The groups are not related.");
+    }
+
+    private NametagGroup getRoot() {
+        var group = this;
+
+        while (group.parent != null)
+            group = group.parent;
+
+        return group;
+    }
+
+    @Nullable
+    private NametagGroup findGroupOf(Player player) {
+        if (players.containsKey(player.getUniqueId()))
+            return this;
+
+        for (val child : children) {
+            val group = child.findGroupOf(player);
+
+            if (group != null)
+                return group;
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates a named team whose prefix and suffix can be changed for all of
+     * its players at once.
+     * 
+     * @param name   The name of the team, unique within this group.
+     * @param prefix The team's prefix.
+     * @param suffix The team's suffix.
+     * @return The created team.
+     */
+    public LogicalTeam createTeam(String name, String prefix, String suffix) {
+        if (deleted)
+            throw new IllegalStateException("This group has been deleted.");
+
+        return manager.createLogicalTeam(name, prefix, suffix);
+    }
+
+    /**
+     * Returns the named team created with
+     * {@link #createTeam(String, String, String)}.
+     * 
+     * @param name The name of the team.
+     * @return The team, or {@code null} if there is none.
+     */
+    @Nullable
+    public LogicalTeam getTeam(String name) {
+        return manager.getLogicalTeam(name);
+    }
+
+    /**
+     * Persists the nametags of this group under the given key. Nametags saved
+     * under the key by a previous run are restored in bulk.
+     * 
+     * @param key The key to save the nametags under.
+     */
+    public void persist(String key) {
+        if (deleted)
+            throw new IllegalStateException("This group has been deleted.");
+
+        if (persistenceKey != null)
+            throw new IllegalStateException("This group is already persisted as " + persistenceKey + ".");
+
+        NametagPlugin.getInstance().getStore().attach(this, key);
+        persistenceKey = key;
+    }
+
+    /**
+     * Returns a publisher of the nametag changes applied in this group.
+     * Subscribers can use it to maintain their own view of the nametags
+     * instead of polling. The publisher completes when the group is deleted.
+     * 
+     * @return The publisher of nametag changes.
+     */
+    public Flow.Publisher<NametagChange> getChanges() {
+        if (deleted)
+            throw new IllegalStateException("This group has been deleted.");
+
+        return manager.getPublisher();
+    }
+
+    /**
+     * Estimates the heap size retained by this group and its manager, not
+     * counting child groups or the players and strings it refers to. Useful
+     * to gauge the cost of keeping many small groups alive.
+     * 
+     * @return The estimated size in bytes.
+     */
+    public long estimateFootprint() {
+        return manager.estimateGroupFootprint(players, children);
     }
 
     public void delete() {
         if (deleted)
             throw new IllegalStateException("This group has been deleted.");
 
+        for (val child : children.toArray(new NametagGroup[0]))
+            child.delete();
+
+        NametagRecorder.groupDeleted(this);
+
+        if (persistenceKey != null)
+            NametagPlugin.getInstance().getStore().detach(persistenceKey);
+
         manager.reset();
+
+        for (var ancestor = parent; ancestor != null; ancestor = ancestor.parent)
+            for (val player : players.values())
+                ancestor.manager.sendRemoveTeamsToPlayer(player);
+
+        if (parent != null)
+            parent.children.remove(this);
+
+        players.clear();
+        NametagGroupRegistry.unregister(this);
         deleted = true;
     }
 }
@@ -0,0 +1,24 @@
+package gg.mineral.api.nametag;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Keeps the registered {@link NametagGroup}s in sync with the players on the
+ * server, so groups never hold on to players that left.
+ */
+public final class NametagGroupListener implements Listener {
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        NametagGroupRegistry.purge(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChangedWorld(PlayerChangedWorldEvent event) {
+        NametagGroupRegistry.changedWorld(event.getPlayer());
+    }
+}
@@ -0,0 +1,82 @@
+package gg.mineral.api.nametag;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.bukkit.entity.Player;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.val;
+
+/**
+ * Keeps track of every live {@link NametagGroup}. Groups are held weakly, so
+ * the registry itself never keeps a group alive, and are dropped once they
+ * are deleted.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class NametagGroupRegistry {
+    private static final Set<NametagGroup> GROUPS = Collections.newSetFromMap(new WeakHashMap<>());
+
+    static void register(NametagGroup group) {
+        GROUPS.add(group);
+    }
+
+    static void unregister(NametagGroup group) {
+        GROUPS.remove(group);
+    }
+
+    /**
+     * Returns every group that has not been deleted yet.
+     * 
+     * @return A copy of the live groups.
+     */
+    public static Collection<NametagGroup> getGroups() {
+        return new ObjectArrayList<>(GROUPS);
+    }
+
+    /**
+     * Returns the groups that have had no players for at least the given
+     * time, but were never deleted. These groups usually belong to a plugin
+     * that forgot to clean them up.
+     * 
+     * @param idle The minimum time without players.
+     * @return The stale groups.
+     */
+    public static Collection<NametagGroup> getStaleGroups(Duration idle) {
+        val cutoff = System.currentTimeMillis() - idle.toMillis();
+        val stale = new ObjectArrayList<NametagGroup>();
+
+        for (val group : GROUPS)
+            if (group.getPlayers().isEmpty() && group.getEmptySince() <= cutoff)
+                stale.add(group);
+
+        return stale;
+    }
+
+    /**
+     * Drops a player that quit the server from every group.
+     * 
+     * @param player The player that quit.
+     */
+    static void purge(Player player) {
+        for (val group : getGroups())
+            group.purge(player);
+    }
+
+    /**
+     * Removes a player that changed worlds from every group scoped to another
+     * world.
+     * 
+     * @param player The player that changed worlds.
+     */
+    static void changedWorld(Player player) {
+        for (val group : getGroups())
+            if (group.isOutsideScope(player.getWorld()) && group.contains(player))
+                group.remove(player);
+    }
+}
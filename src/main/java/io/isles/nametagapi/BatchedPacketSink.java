@@ -0,0 +1,114 @@
+package io.isles.nametagapi;
+
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.craftbukkit.v1_8_R3.entity.CraftPlayer;
+import org.bukkit.entity.Player;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import lombok.val;
+import net.minecraft.server.v1_8_R3.EnumProtocol;
+import net.minecraft.server.v1_8_R3.NetworkManager;
+import net.minecraft.server.v1_8_R3.PacketPlayOutScoreboardTeam;
+
+/**
+ * Queues team packets per connection and writes them on {@link #flush()},
+ * flushing each connection once instead of once per packet. Must only be used
+ * from the main thread.
+ * 
+ * <br>
+ * <br>
+ * 
+ * The batch is written to the channel directly instead of through
+ * {@link NetworkManager#handle}, which flushes after every packet. This keeps
+ * the order of the connection: the batch is written by a task on the
+ * channel's event loop, submitted from the main thread like the tasks
+ * NetworkManager submits for the packets the server sends, so it runs after
+ * every packet sent before the flush and before every packet sent after it.
+ * NetworkManager only holds packets back itself while the channel is not
+ * open, and such connections are skipped. The batch is only written directly
+ * while the connection is in the play protocol; otherwise each packet is
+ * handed to NetworkManager, which switches the protocol as needed.
+ * 
+ * <br>
+ * <br>
+ * 
+ * Writability is checked when the batch is written: the packets of a
+ * connection that is not writable stay queued, in order, until it drains.
+ */
+final class BatchedPacketSink implements PacketSink {
+    /** The packets waiting to be written, in order, per connection. */
+    private final Map<NetworkManager, List<PacketPlayOutScoreboardTeam>> pending = new Object2ObjectLinkedOpenHashMap<>();
+
+    @Override
+    public void send(Player viewer, PacketPlayOutScoreboardTeam packet) {
+        if (!(viewer instanceof CraftPlayer craftPlayer))
+            return;
+
+        val connection = craftPlayer.getHandle().playerConnection;
+
+        if (connection.networkManager == null || connection.networkManager.channel == null) {
+            connection.sendPacket(packet);
+            return;
+        }
+
+        pending.computeIfAbsent(connection.networkManager, k -> new ObjectArrayList<>()).add(packet);
+    }
+
+    /**
+     * Writes the queued packets of every touched connection that is writable
+     * on its event loop and flushes it once.
+     */
+    @Override
+    public void flush() {
+        flush(true);
+    }
+
+    /**
+     * Writes the queued packets of every touched connection, writable or not.
+     */
+    @Override
+    public void drain() {
+        flush(false);
+    }
+
+    private void flush(boolean holdBack) {
+        if (pending.isEmpty())
+            return;
+
+        val iterator = pending.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            val entry = iterator.next();
+            val networkManager = entry.getKey();
+            val channel = networkManager.channel;
+            val packets = entry.getValue();
+
+            if (channel != null && channel.isOpen() && holdBack && !PacketHandler.isWritable(networkManager))
+                continue;
+
+            iterator.remove();
+
+            if (channel == null || !channel.isOpen())
+                continue;
+
+            channel.eventLoop().execute(() -> {
+                // The protocol only changes on the event loop, so it cannot
+                // change while the batch is written.
+                if (channel.attr(NetworkManager.c).get() != EnumProtocol.PLAY) {
+                    for (val packet : packets)
+                        networkManager.handle(packet);
+
+                    return;
+                }
+
+                for (val packet : packets)
+                    channel.write(packet, channel.voidPromise());
+
+                channel.flush();
+            });
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package io.isles.nametagapi;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import lombok.val;
+
+/**
+ * Records which teams and memberships of one {@link NametagManager} a single
+ * client has received. Teams are indexed by their slot in the manager, so the
+ * team state fits in two bitsets per viewer.
+ */
+final class ClientLedger {
+    /** The slots of the teams the client has. */
+    private final BitSet teams = new BitSet();
+    /** The slots of the teams whose prefix and suffix the client has. */
+    private final BitSet current = new BitSet();
+    /** The slot of the team each member is in on the client. */
+    private final Object2IntOpenHashMap<String> members = new Object2IntOpenHashMap<>(4);
+
+    ClientLedger() {
+        members.defaultReturnValue(-1);
+    }
+
+    boolean hasTeam(int slot) {
+        return teams.get(slot);
+    }
+
+    boolean isCurrent(int slot) {
+        return current.get(slot);
+    }
+
+    /**
+     * Returns the slot of the team the given member is in on the client.
+     * 
+     * @param member The member.
+     * @return The team slot, or -1 if the member is in none of the teams.
+     */
+    int getTeam(String member) {
+        return members.getInt(member);
+    }
+
+    BitSet getTeams() {
+        return teams;
+    }
+
+    Object2IntOpenHashMap<String> getMembers() {
+        return members;
+    }
+
+    /**
+     * Estimates the heap size of this ledger, without the member names.
+     * 
+     * @return The estimated size in bytes.
+     */
+    long estimateFootprint() {
+        return Footprint.shallow(ClientLedger.class)
+                + 2 * (Footprint.shallow(BitSet.class) + Footprint.array(Math.max(1, teams.size() / 64), 8))
+                + Footprint.hash(Object2IntOpenHashMap.class, members.size(), Footprint.REFERENCE, 4);
+    }
+
+    void created(int slot) {
+        teams.set(slot);
+        current.set(slot);
+    }
+
+    void updated(int slot) {
+        current.set(slot);
+    }
+
+    /**
+     * Marks the prefix and suffix the client has for a team as outdated,
+     * after an update was held back.
+     * 
+     * @param slot The team slot.
+     */
+    void outdated(int slot) {
+        current.clear(slot);
+    }
+
+    void removed(int slot) {
+        teams.clear(slot);
+        current.clear(slot);
+        members.object2IntEntrySet().removeIf(entry -> entry.getIntValue() == slot);
+    }
+
+    void joined(int slot, Collection<String> names) {
+        for (val name : names)
+            members.put(name, slot);
+    }
+
+    void left(int slot, Collection<String> names) {
+        for (val name : names)
+            if (members.getInt(name) == slot)
+                members.removeInt(name);
+    }
+
+    /**
+     * Forgets the memberships of players that were moved into a team of
+     * another manager on the client.
+     * 
+     * @param names The moved players.
+     */
+    void forget(Collection<String> names) {
+        for (val name : names)
+            members.removeInt(name);
+    }
+
+    boolean isEmpty() {
+        return teams.isEmpty();
+    }
+}
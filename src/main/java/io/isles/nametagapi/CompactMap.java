@@ -0,0 +1,212 @@
+package io.isles.nametagapi;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import lombok.val;
+
+/**
+ * A map for the small collections kept per nametag group. Up to
+ * {@link #THRESHOLD} entries are stored inline in one array and looked up
+ * linearly; past that, the entries move to a hash table. Nothing is allocated
+ * until the first entry is added. Not thread-safe.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+final class CompactMap<K, V> extends AbstractMap<K, V> {
+    /** The amount of entries above which a hash table is used. */
+    static final int THRESHOLD = 8;
+    /**
+     * The keys and values, alternating, while the map is small; {@code null}
+     * before the first entry is added or once the hash table is used.
+     */
+    private Object[] entries;
+    private int size;
+    private Object2ObjectOpenHashMap<K, V> table;
+    private Set<Entry<K, V>> entrySet;
+
+    @Override
+    public int size() {
+        return table != null ? table.size() : size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return table != null ? table.containsKey(key) : indexOf(key) != -1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (table != null)
+            return table.get(key);
+
+        int index = indexOf(key);
+        return index == -1 ? null : (V) entries[index * 2 + 1];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (table != null)
+            return table.put(key, value);
+
+        int index = indexOf(key);
+
+        if (index != -1) {
+            val previous = (V) entries[index * 2 + 1];
+            entries[index * 2 + 1] = value;
+            return previous;
+        }
+
+        if (size == THRESHOLD) {
+            table = new Object2ObjectOpenHashMap<>(THRESHOLD * 2);
+
+            for (int i = 0; i < size; i++)
+                table.put((K) entries[i * 2], (V) entries[i * 2 + 1]);
+
+            entries = null;
+            size = 0;
+            return table.put(key, value);
+        }
+
+        if (entries == null)
+            entries = new Object[4];
+        else if (entries.length == size * 2)
+            entries = Arrays.copyOf(entries, entries.length * 2);
+
+        entries[size * 2] = key;
+        entries[size * 2 + 1] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        if (table != null)
+            return table.remove(key);
+
+        int index = indexOf(key);
+
+        if (index == -1)
+            return null;
+
+        val previous = (V) entries[index * 2 + 1];
+        removeAt(index);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        entries = null;
+        size = 0;
+        table = null;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        if (entrySet == null)
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    if (table != null)
+                        return table.entrySet().iterator();
+
+                    return entries == null ? Collections.emptyIterator() : new ArrayIterator();
+                }
+
+                @Override
+                public int size() {
+                    return CompactMap.this.size();
+                }
+            };
+
+        return entrySet;
+    }
+
+    /**
+     * Estimates the heap size of this map, without its keys and values.
+     * 
+     * @return The estimated size in bytes.
+     */
+    long estimateFootprint() {
+        long bytes = Footprint.shallow(CompactMap.class);
+
+        if (entries != null)
+            bytes += Footprint.array(entries.length, Footprint.REFERENCE);
+
+        if (table != null)
+            bytes += Footprint.hash(Object2ObjectOpenHashMap.class, table.size(), Footprint.REFERENCE,
+                    Footprint.REFERENCE);
+
+        return bytes;
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < size; i++)
+            if (Objects.equals(entries[i * 2], key))
+                return i;
+
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        System.arraycopy(entries, (index + 1) * 2, entries, index * 2, (size - index - 1) * 2);
+        size--;
+        entries[size * 2] = null;
+        entries[size * 2 + 1] = null;
+    }
+
+    private final class ArrayIterator implements Iterator<Entry<K, V>> {
+        private int next, last = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<K, V> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            last = next++;
+            val index = last;
+
+            return new SimpleEntry<K, V>((K) entries[index * 2], (V) entries[index * 2 + 1]) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public V setValue(V value) {
+                    entries[index * 2 + 1] = value;
+                    return super.setValue(value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (last == -1)
+                throw new IllegalStateException();
+
+            removeAt(last);
+            next = last;
+            last = -1;
+        }
+    }
+}
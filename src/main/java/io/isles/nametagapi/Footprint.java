@@ -0,0 +1,97 @@
+package io.isles.nametagapi;
+
+import java.lang.reflect.Modifier;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.val;
+
+/**
+ * Rough heap size estimates, assuming a 64-bit JVM with compressed object
+ * pointers: 12-byte object headers, 16-byte array headers, 4-byte references
+ * and 8-byte alignment.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class Footprint {
+    static final int REFERENCE = 4;
+    /** The shallow size of each class, derived from its instance fields. */
+    private static final ClassValue<Long> SHALLOW = new ClassValue<>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            int references = 0, primitives = 0;
+
+            for (var declaring = type; declaring != null; declaring = declaring.getSuperclass())
+                for (val field : declaring.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()))
+                        continue;
+
+                    if (field.getType().isPrimitive())
+                        primitives += primitive(field.getType());
+                    else
+                        references++;
+                }
+
+            return object(references, primitives);
+        }
+    };
+
+    /**
+     * Estimates the size of an instance of the given class, without the
+     * objects it refers to. Derived from the instance fields of the class and
+     * its superclasses, and cached per class.
+     * 
+     * @param type The class.
+     * @return The estimated size in bytes.
+     */
+    static long shallow(Class<?> type) {
+        return SHALLOW.get(type);
+    }
+
+    private static long object(int references, int primitives) {
+        return align(12L + references * REFERENCE + primitives);
+    }
+
+    /**
+     * Estimates the size of an array.
+     * 
+     * @param length  The length of the array.
+     * @param element The size of one element, in bytes.
+     * @return The estimated size in bytes.
+     */
+    static long array(int length, int element) {
+        return align(16L + (long) length * element);
+    }
+
+    /**
+     * Estimates the size of a fastutil open hash map or set, without its keys
+     * and values.
+     * 
+     * @param type  The class of the map or set.
+     * @param size  The amount of entries.
+     * @param key   The size of one key, in bytes.
+     * @param value The size of one value, in bytes, or 0 for a set.
+     * @return The estimated size in bytes.
+     */
+    static long hash(Class<?> type, int size, int key, int value) {
+        int length = HashCommon.arraySize(Math.max(size, 1), 0.75f) + 1;
+        return shallow(type) + array(length, key) + (value > 0 ? array(length, value) : 0);
+    }
+
+    private static int primitive(Class<?> type) {
+        if (type == long.class || type == double.class)
+            return 8;
+
+        if (type == int.class || type == float.class)
+            return 4;
+
+        if (type == short.class || type == char.class)
+            return 2;
+
+        return 1;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
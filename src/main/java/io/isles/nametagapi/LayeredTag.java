@@ -0,0 +1,154 @@
+package io.isles.nametagapi;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import io.isles.nametagapi.TemplateBinding.Slot;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+/**
+ * The contributions of every {@link NametagLayer} to one player's nametag in
+ * one group, on top of the base nametag set directly through the API. The
+ * prefix and suffix are each taken from the highest priority layer that
+ * contributes them, falling back to the base.
+ */
+final class LayeredTag {
+    /** The base prefix, or {@code null} if the player has no base nametag. */
+    @Getter
+    @Nullable
+    private String basePrefix;
+    /** The base suffix, or {@code null} if the player has no base nametag. */
+    @Getter
+    @Nullable
+    private String baseSuffix;
+    /** The contributions, ordered from the highest priority to the lowest. */
+    private final List<Contribution> contributions = new ObjectArrayList<>(2);
+
+    LayeredTag(@Nullable String basePrefix, @Nullable String baseSuffix) {
+        this.basePrefix = basePrefix;
+        this.baseSuffix = baseSuffix;
+    }
+
+    void setBase(@Nullable String prefix, @Nullable String suffix) {
+        this.basePrefix = prefix;
+        this.baseSuffix = suffix;
+    }
+
+    /**
+     * Sets the prefix or suffix contributed by a layer.
+     * 
+     * @param layer The contributing layer.
+     * @param slot  The part of the nametag.
+     * @param value The contributed value, or {@code null} to stop
+     *              contributing it.
+     * @return {@code true} if the contribution changed.
+     */
+    boolean set(NametagLayer layer, Slot slot, @Nullable String value) {
+        int index = indexOf(layer);
+
+        if (index == -1) {
+            if (value == null)
+                return false;
+
+            val contribution = new Contribution(layer);
+            int at = 0;
+
+            while (at < contributions.size() && contributions.get(at).layer.precedes(layer))
+                at++;
+
+            contributions.add(at, contribution);
+            index = at;
+        }
+
+        val contribution = contributions.get(index);
+        val previous = slot == Slot.PREFIX ? contribution.prefix : contribution.suffix;
+
+        if (slot == Slot.PREFIX)
+            contribution.prefix = value;
+        else
+            contribution.suffix = value;
+
+        if (contribution.prefix == null && contribution.suffix == null)
+            contributions.remove(index);
+
+        return value == null ? previous != null : !value.equals(previous);
+    }
+
+    /**
+     * Withdraws every contribution of a layer.
+     * 
+     * @param layer The layer.
+     * @return {@code true} if the layer contributed anything.
+     */
+    boolean remove(NametagLayer layer) {
+        int index = indexOf(layer);
+
+        if (index == -1)
+            return false;
+
+        contributions.remove(index);
+        return true;
+    }
+
+    void collectLayers(Collection<NametagLayer> layers) {
+        for (val contribution : contributions)
+            layers.add(contribution.layer);
+    }
+
+    boolean has(NametagLayer layer) {
+        return indexOf(layer) != -1;
+    }
+
+    boolean hasLayers() {
+        return !contributions.isEmpty();
+    }
+
+    /**
+     * Returns the resolved prefix.
+     * 
+     * @return The prefix, or {@code null} if neither a layer nor the base sets
+     *         one.
+     */
+    @Nullable
+    String getPrefix() {
+        for (val contribution : contributions)
+            if (contribution.prefix != null)
+                return contribution.prefix;
+
+        return basePrefix;
+    }
+
+    /**
+     * Returns the resolved suffix.
+     * 
+     * @return The suffix, or {@code null} if neither a layer nor the base sets
+     *         one.
+     */
+    @Nullable
+    String getSuffix() {
+        for (val contribution : contributions)
+            if (contribution.suffix != null)
+                return contribution.suffix;
+
+        return baseSuffix;
+    }
+
+    private int indexOf(NametagLayer layer) {
+        for (int i = 0; i < contributions.size(); i++)
+            if (contributions.get(i).layer == layer)
+                return i;
+
+        return -1;
+    }
+
+    @RequiredArgsConstructor
+    private static final class Contribution {
+        private final NametagLayer layer;
+        private String prefix, suffix;
+    }
+}
@@ -0,0 +1,190 @@
+package io.isles.nametagapi;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import lombok.Getter;
+
+/**
+ * A named, stable team whose prefix and suffix are shared by all of its
+ * players. Changing the prefix or suffix updates the team in place with one
+ * packet per viewer, no matter how many players are in the team.
+ * 
+ * <br>
+ * <br>
+ * 
+ * Logical teams are created through
+ * {@link NametagManager#createLogicalTeam(String, String, String)} and must
+ * be used from the main thread.
+ * 
+ * <br>
+ * <br>
+ * 
+ * A logical team takes precedence over {@link NametagLayer layers}: while a
+ * player is in the team, they show its nametag and the contributions of
+ * layers are kept without being applied. Setting or clearing the player's
+ * nametag, or removing them from the team, lets the layers apply again.
+ */
+public final class LogicalTeam {
+    @Getter
+    private final String name;
+    private final NametagManager manager;
+    /** The team backing this logical team, replaced when it is renamed. */
+    TeamInfo team;
+    @Getter
+    private boolean deleted;
+
+    LogicalTeam(String name, NametagManager manager, TeamInfo team) {
+        this.name = name;
+        this.manager = manager;
+        this.team = team;
+    }
+
+    /**
+     * Returns the prefix shared by the players of this team.
+     * 
+     * @return The team's prefix.
+     */
+    public String getPrefix() {
+        return team.getPrefix();
+    }
+
+    /**
+     * Returns the suffix shared by the players of this team.
+     * 
+     * @return The team's suffix.
+     */
+    public String getSuffix() {
+        return team.getSuffix();
+    }
+
+    /**
+     * Changes the prefix of every player in this team.
+     * 
+     * @param prefix The new prefix.
+     */
+    public void setPrefix(String prefix) {
+        setNametag(prefix, team.getSuffix());
+    }
+
+    /**
+     * Changes the suffix of every player in this team.
+     * 
+     * @param suffix The new suffix.
+     */
+    public void setSuffix(String suffix) {
+        setNametag(team.getPrefix(), suffix);
+    }
+
+    /**
+     * Changes the prefix and suffix of every player in this team.
+     * 
+     * @param prefix The new prefix.
+     * @param suffix The new suffix.
+     */
+    public void setNametag(String prefix, String suffix) {
+        checkDeleted();
+        manager.updateLogicalTeam(this, prefix == null ? "" : prefix, suffix == null ? "" : suffix);
+    }
+
+    /**
+     * Returns the tab list sort weight of this team.
+     * 
+     * @return The team's weight; lower weights are listed first.
+     */
+    public int getSortWeight() {
+        return team.getWeight();
+    }
+
+    /**
+     * Changes the tab list sort weight of this team. Clients order teams by
+     * name, so this recreates the team for every viewer.
+     * 
+     * @param weight The new weight; lower weights are listed first.
+     */
+    public void setSortWeight(int weight) {
+        checkDeleted();
+        manager.setLogicalTeamWeight(this, weight);
+    }
+
+    /**
+     * Lists this team right before the given team in the tab list. Usually
+     * only this team is recreated; occasionally every logical team of the
+     * group is given a new weight at once to make room.
+     * 
+     * @param other The team to list this team before.
+     */
+    public void placeBefore(LogicalTeam other) {
+        place(other, true);
+    }
+
+    /**
+     * Lists this team right after the given team in the tab list. Usually
+     * only this team is recreated; occasionally every logical team of the
+     * group is given a new weight at once to make room.
+     * 
+     * @param other The team to list this team after.
+     */
+    public void placeAfter(LogicalTeam other) {
+        place(other, false);
+    }
+
+    /**
+     * Moves the given player into this team.
+     * 
+     * @param player The player to add.
+     */
+    public void add(String player) {
+        checkDeleted();
+        manager.addToLogicalTeam(this, player);
+    }
+
+    /**
+     * Removes the given player from this team, clearing their nametag, or
+     * showing their layered nametag if layers contribute to it.
+     * 
+     * @param player The player to remove.
+     */
+    public void remove(String player) {
+        checkDeleted();
+        manager.removeFromLogicalTeam(this, player);
+    }
+
+    /**
+     * Returns the players in this team.
+     * 
+     * @return An unmodifiable view of the players.
+     */
+    public Collection<String> getPlayers() {
+        return Collections.unmodifiableCollection(manager.getLogicalTeamPlayers(this));
+    }
+
+    /**
+     * Deletes this team, clearing the nametags of its players.
+     */
+    public void delete() {
+        checkDeleted();
+        manager.deleteLogicalTeam(this);
+    }
+
+    private void place(LogicalTeam other, boolean before) {
+        checkDeleted();
+
+        if (other.manager != manager)
+            throw new IllegalArgumentException("The other team does not belong to the same group.");
+
+        if (other.deleted)
+            throw new IllegalStateException("The other team has been deleted.");
+
+        manager.placeLogicalTeam(this, other, before);
+    }
+
+    void markDeleted() {
+        deleted = true;
+    }
+
+    private void checkDeleted() {
+        if (deleted)
+            throw new IllegalStateException("This team has been deleted.");
+    }
+}
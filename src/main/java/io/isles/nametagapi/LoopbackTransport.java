@@ -0,0 +1,32 @@
+package io.isles.nametagapi;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import lombok.val;
+
+/**
+ * An in-process {@link NametagTransport} that delivers every message directly
+ * to all subscribers. Useful for tests and for sharing nametags between
+ * several sync instances on one server.
+ */
+public final class LoopbackTransport implements NametagTransport {
+    private final List<Consumer<byte[]>> receivers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(byte[] message) {
+        for (val receiver : receivers)
+            receiver.accept(message);
+    }
+
+    @Override
+    public void subscribe(Consumer<byte[]> receiver) {
+        receivers.add(receiver);
+    }
+
+    @Override
+    public void unsubscribe(Consumer<byte[]> receiver) {
+        receivers.remove(receiver);
+    }
+}
@@ -1,5 +1,7 @@
 package io.isles.nametagapi;
 
+import java.time.Duration;
+
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.Plugin;
 
@@ -22,6 +24,12 @@ import lombok.val;
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public final class NametagAPI {
 
+    /** The lowest tab list sort weight, listed first. */
+    public static final int MIN_SORT_WEIGHT = SortKey.MIN;
+    /** The highest tab list sort weight, listed last. */
+    public static final int MAX_SORT_WEIGHT = SortKey.MAX;
+    /** The sort weight of players and teams that were not given one. */
+    public static final int DEFAULT_SORT_WEIGHT = SortKey.DEFAULT;
     private static Plugin plugin;
 
     static {
@@ -90,6 +98,50 @@ public final class NametagAPI {
         });
     }
 
+    /**
+     * Sets the given prefix and suffix on the player for a limited time, such
+     * as for a combat tag or spawn protection. The nametag takes precedence
+     * over every layer and over the player's regular nametag, which shows
+     * again once it expires. Setting another expiring nametag on the player
+     * replaces this one and its expiry. All nametags expiring in the same
+     * tick are restored as one batch.
+     * 
+     * @param group    The group to set the nametag in.
+     * @param player   The player to set the nametag on.
+     * @param prefix   The prefix to use, or {@code null} to keep the regular
+     *                 prefix.
+     * @param suffix   The suffix to use, or {@code null} to keep the regular
+     *                 suffix.
+     * @param duration How long the nametag lasts, at least one tick.
+     */
+    public static void setNametag(final NametagGroup group, final String player, final String prefix,
+            final String suffix, final Duration duration) {
+        if (duration.isNegative() || duration.isZero())
+            throw new IllegalArgumentException("Duration must be positive: " + duration);
+
+        val ticks = Math.max(1L, (duration.toMillis() + 49) / 50);
+
+        Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, () -> {
+            val currentPrefix = getPrefix(group, player);
+            val currentSuffix = getSuffix(group, player);
+            val event = new NametagChangeEvent(player, currentPrefix, currentSuffix,
+                    prefix == null ? currentPrefix : prefix, suffix == null ? currentSuffix : suffix,
+                    NametagChangeType.HARD, NametagChangeReason.CUSTOM);
+            Bukkit.getServer().getPluginManager().callEvent(event);
+
+            if (event.isCancelled())
+                return;
+
+            // A part left to the regular nametag only stays that way if no
+            // listener changed it.
+            val newPrefix = event.getPrefix();
+            val newSuffix = event.getSuffix();
+            group.getManager().setExpiring(player,
+                    prefix == null && currentPrefix.equals(newPrefix) ? null : newPrefix,
+                    suffix == null && currentSuffix.equals(newSuffix) ? null : newSuffix, ticks);
+        });
+    }
+
     /**
      * Sets the custom given prefix and suffix to the player. If a given prefix
      * or suffix is empty/null, it will be ignored. <br>
@@ -178,6 +230,133 @@ public final class NametagAPI {
         });
     }
 
+    /**
+     * Plays the given animation on the player's nametag. Every player using
+     * the same animation in a group shares one team, and frames are applied
+     * by updating that team in place instead of moving players between teams.
+     * <br>
+     * <br>
+     * This method schedules a task with the request to change the player's name
+     * to prevent it from clashing with the PlayerJoinEvent in NametagAPI.
+     * 
+     * @param group     The group to animate the nametag in.
+     * @param player    The player to animate.
+     * @param animation The animation to play.
+     */
+    public static void animate(final NametagGroup group, final String player, final NametagAnimation animation) {
+        Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, () -> {
+            val frame = animation.frameAt(NametagAnimator.current.getTick());
+            val event = new NametagChangeEvent(player, getPrefix(group, player), getSuffix(group, player),
+                    frame.getPrefix(), frame.getSuffix(),
+                    NametagChangeType.HARD, NametagChangeReason.CUSTOM);
+            Bukkit.getServer().getPluginManager().callEvent(event);
+
+            if (!event.isCancelled())
+                group.getManager().animate(player, animation);
+        });
+    }
+
+    /**
+     * Sets where the given player is listed in the tab list. The 1.8 client
+     * orders the tab list by team name, so the weight is encoded at the start
+     * of the name of the player's team; players with the same weight are
+     * ordered by name. Players in a logical team are listed by the weight of
+     * that team instead, see {@link LogicalTeam#setSortWeight(int)}.
+     * 
+     * <br>
+     * <br>
+     * 
+     * A player without a nametag is not in any team, so the weight is kept
+     * and applied as soon as the player gets a nametag.
+     * 
+     * @param group  The group to set the weight in.
+     * @param player The player.
+     * @param weight The weight, between {@link #MIN_SORT_WEIGHT} and
+     *               {@link #MAX_SORT_WEIGHT}; lower weights are listed first.
+     */
+    public static void setSortWeight(final NametagGroup group, final String player, final int weight) {
+        SortKey.check(weight);
+
+        Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, () -> {
+            val prefix = getPrefix(group, player);
+            val suffix = getSuffix(group, player);
+            val event = new NametagChangeEvent(player, prefix, suffix, prefix, suffix, NametagChangeType.HARD,
+                    NametagChangeReason.CUSTOM);
+            Bukkit.getServer().getPluginManager().callEvent(event);
+
+            if (!event.isCancelled())
+                group.getManager().setSortWeight(player, weight);
+        });
+    }
+
+    /**
+     * Returns the tab list sort weight of the given player.
+     * 
+     * @param group  The group to get the weight from.
+     * @param player The player.
+     * @return The player's weight.
+     */
+    public static int getSortWeight(final NametagGroup group, final String player) {
+        return group.getManager().getSortWeight(player);
+    }
+
+    /**
+     * Registers a prefix and suffix layer for the given plugin. Plugins that
+     * tag the same players should each use their own layer instead of setting
+     * nametags directly, so they no longer overwrite each other: the
+     * highest priority contribution wins, and nametags set through the other
+     * methods of this class act as the base below every layer.
+     * The layer is unregistered when its plugin is disabled.
+     * 
+     * @param owner    The plugin owning the layer.
+     * @param name     A name describing the layer, such as "combat".
+     * @param priority The priority of the layer; higher priorities win.
+     * @return The registered layer.
+     */
+    public static NametagLayer registerLayer(final Plugin owner, final String name, final int priority) {
+        return new NametagLayer(owner, name, priority);
+    }
+
+    /**
+     * Binds a template to the given player's prefix. The template is first
+     * rendered with no inputs set, and afterwards only when one of its inputs
+     * changes through the returned binding. <br>
+     * <br>
+     * This method schedules a task with the request to change the player's name
+     * to prevent it from clashing with the PlayerJoinEvent in NametagAPI.
+     * 
+     * @param group    The group to bind the template in.
+     * @param player   The player to bind the template to.
+     * @param template The template to render.
+     * @return The binding used to update the template inputs.
+     */
+    public static TemplateBinding bindPrefix(final NametagGroup group, final String player,
+            final NametagTemplate template) {
+        val binding = new TemplateBinding(group, player, TemplateBinding.Slot.PREFIX, template);
+        Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, binding::applyIfBound);
+        return binding;
+    }
+
+    /**
+     * Binds a template to the given player's suffix. The template is first
+     * rendered with no inputs set, and afterwards only when one of its inputs
+     * changes through the returned binding. <br>
+     * <br>
+     * This method schedules a task with the request to change the player's name
+     * to prevent it from clashing with the PlayerJoinEvent in NametagAPI.
+     * 
+     * @param group    The group to bind the template in.
+     * @param player   The player to bind the template to.
+     * @param template The template to render.
+     * @return The binding used to update the template inputs.
+     */
+    public static TemplateBinding bindSuffix(final NametagGroup group, final String player,
+            final NametagTemplate template) {
+        val binding = new TemplateBinding(group, player, TemplateBinding.Slot.SUFFIX, template);
+        Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, binding::applyIfBound);
+        return binding;
+    }
+
     /**
      * Clears the given player's custom prefix and suffix and sets it to the
      * group node that applies to that player. <br>
@@ -193,40 +372,57 @@ public final class NametagAPI {
     }
 
     /**
-     * Returns the prefix for the given player name
+     * Returns the prefix for the given player name. This method may be called
+     * from any thread; off the main thread it reads the group's latest
+     * snapshot.
      * 
      * @param group  The group to get the prefix for.
      * @param player The player to check
      * @return the player's prefix, or null if there is none.
      */
     public static String getPrefix(final NametagGroup group, String player) {
+        if (!Bukkit.isPrimaryThread())
+            return group.getManager().getSnapshot().getPrefix(player);
+
         return group.getManager().getPrefix(player);
     }
 
     /**
-     * Returns the suffix for the given player name
+     * Returns the suffix for the given player name. This method may be called
+     * from any thread; off the main thread it reads the group's latest
+     * snapshot.
      * 
      * @param group  The group to get the suffix for.
      * @param player The player to check.
      * @return The player's suffix, or null if there is none.
      */
     public static String getSuffix(final NametagGroup group, String player) {
+        if (!Bukkit.isPrimaryThread())
+            return group.getManager().getSnapshot().getSuffix(player);
+
         return group.getManager().getSuffix(player);
     }
 
     /**
-     * Returns the entire nametag for the given player
+     * Returns the entire nametag for the given player. This method may be
+     * called from any thread; off the main thread it reads the group's latest
+     * snapshot.
      * 
      * @param group  The group to get the nametag for.
      * @param player The player to check
      * @return The player's prefix, actual name, and suffix in one string
      */
     public static String getNametag(final NametagGroup group, String player) {
+        if (!Bukkit.isPrimaryThread())
+            return group.getManager().getSnapshot().getNametag(player);
+
         return group.getManager().getFormattedName(player);
     }
 
     /**
-     * Returns whether the player currently has a custom nametag applied.
+     * Returns whether the player currently has a custom nametag applied. This
+     * method may be called from any thread; off the main thread it reads the
+     * group's latest snapshot.
      * 
      * @param group  The group to check the nametag for.
      * @param player The player to check.
@@ -234,7 +430,126 @@ public final class NametagAPI {
      *         {@code false}.
      */
     public static boolean hasCustomNametag(final NametagGroup group, String player) {
+        if (!Bukkit.isPrimaryThread())
+            return group.getManager().getSnapshot().isManaged(player);
+
         return group.getManager().isManaged(player);
     }
 
+    /**
+     * Returns the latest published snapshot of the group's nametags. The
+     * snapshot is immutable and can be read from any thread without locking.
+     * It is replaced once per tick in which the group's nametags changed.
+     * 
+     * @param group The group to get the snapshot for.
+     * @return The latest snapshot.
+     */
+    public static NametagSnapshot getSnapshot(final NametagGroup group) {
+        return group.getManager().getSnapshot();
+    }
+
+    /**
+     * Sets how team packets are delivered to players. With
+     * {@link PacketDelivery#BATCHED}, packets are written without flushing and
+     * each touched connection is flushed once per tick, which
+     * saves a flush per packet when many nametags change at once. Must be
+     * called from the main thread.
+     * 
+     * @param delivery The delivery mode.
+     */
+    public static void setPacketDelivery(final PacketDelivery delivery) {
+        PacketHandler.setDelivery(delivery);
+    }
+
+    /**
+     * Returns how team packets are delivered to players.
+     * 
+     * @return The delivery mode.
+     */
+    public static PacketDelivery getPacketDelivery() {
+        return PacketHandler.getDelivery();
+    }
+
+    /**
+     * Delivers the team packets held back by batched delivery, merged
+     * flushing or the parallel flush phase, instead of waiting for the next
+     * tick. Useful right after a large batch of changes. Must be called from
+     * the main thread.
+     */
+    public static void flushPackets() {
+        NametagManager.catchUp();
+        PacketHandler.flush();
+    }
+
+    /**
+     * Enables or disables backpressure. When enabled, team packets are not
+     * sent to players whose connection is not writable, so a saturated
+     * connection does not buffer every intermediate nametag. Once the
+     * connection drains, the player is sent a single catch-up of the teams
+     * and memberships that differ from the latest state. Team removals are
+     * always sent. Packets already collected for a batched or merged flush
+     * are checked again when flushed, and held back until the connection
+     * drains. Must be called from the main thread.
+     * 
+     * @param backpressure Whether to hold back packets to saturated
+     *                     connections.
+     */
+    public static void setBackpressure(final boolean backpressure) {
+        PacketHandler.backpressure = backpressure;
+    }
+
+    /**
+     * Returns whether backpressure is enabled.
+     * 
+     * @return {@code true} if packets to saturated connections are held back.
+     */
+    public static boolean isBackpressure() {
+        return PacketHandler.backpressure;
+    }
+
+    /**
+     * Enables or disables merged flushing. When enabled, team packets are
+     * collected per player during the tick, and once per tick consecutive
+     * joins and leaves of a team sent to a player are merged into one packet
+     * before they are handed to the connections. Must be called from the main
+     * thread.
+     * 
+     * @param merged Whether to merge packets when they are flushed.
+     */
+    public static void setMergedFlush(final boolean merged) {
+        PacketHandler.setMerged(merged);
+    }
+
+    /**
+     * Returns whether merged flushing is enabled.
+     * 
+     * @return {@code true} if packets are merged when they are flushed.
+     */
+    public static boolean isMergedFlush() {
+        return PacketHandler.isMerged();
+    }
+
+    /**
+     * Enables or disables the parallel flush phase. When enabled, changing a
+     * nametag only records which players are missing packets, and once per
+     * tick the packets each of them is missing are prepared in parallel, one
+     * task per root group with its child groups, before the main thread
+     * hands them to the connections. Team removals are still sent right
+     * away. Must be called from the main thread.
+     * 
+     * @param parallel Whether to prepare packets in parallel.
+     */
+    public static void setParallelFlush(final boolean parallel) {
+        NametagManager.setParallel(parallel);
+    }
+
+    /**
+     * Returns whether the parallel flush phase is enabled.
+     * 
+     * @return {@code true} if packets are prepared in parallel.
+     */
+    public static boolean isParallelFlush() {
+        return NametagManager.isParallel();
+    }
+
 }
\ No newline at end of file
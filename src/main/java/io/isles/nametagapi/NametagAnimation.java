@@ -0,0 +1,108 @@
+package io.isles.nametagapi;
+
+import java.util.List;
+
+import lombok.Getter;
+import lombok.Value;
+import lombok.val;
+
+/**
+ * An immutable sequence of prefix/suffix frames that is played back at a fixed
+ * interval. All players using the same animation share a single team per
+ * group, and every frame is pushed as one team update packet instead of moving
+ * players between teams.
+ */
+public final class NametagAnimation {
+    /** The amount of ticks each frame is shown for. */
+    @Getter
+    private final int interval;
+    private final Frame[] frames;
+
+    /**
+     * Constructs a new animation.
+     * 
+     * @param interval The amount of ticks each frame is shown for.
+     * @param frames   The frames to cycle through.
+     */
+    public NametagAnimation(int interval, Frame... frames) {
+        if (interval < 1)
+            throw new IllegalArgumentException("Interval must be at least one tick");
+
+        if (frames.length == 0)
+            throw new IllegalArgumentException("An animation needs at least one frame");
+
+        this.interval = interval;
+        this.frames = frames.clone();
+    }
+
+    /**
+     * Creates an animation that cycles through the given prefixes while
+     * keeping the suffix fixed.
+     * 
+     * @param interval The amount of ticks each frame is shown for.
+     * @param suffix   The suffix to use for every frame.
+     * @param prefixes The prefixes to cycle through.
+     * @return The created animation.
+     */
+    public static NametagAnimation ofPrefixes(int interval, String suffix, String... prefixes) {
+        val frames = new Frame[prefixes.length];
+
+        for (int i = 0; i < prefixes.length; i++)
+            frames[i] = new Frame(prefixes[i], suffix);
+
+        return new NametagAnimation(interval, frames);
+    }
+
+    /**
+     * Creates an animation that cycles through the given suffixes while
+     * keeping the prefix fixed.
+     * 
+     * @param interval The amount of ticks each frame is shown for.
+     * @param prefix   The prefix to use for every frame.
+     * @param suffixes The suffixes to cycle through.
+     * @return The created animation.
+     */
+    public static NametagAnimation ofSuffixes(int interval, String prefix, String... suffixes) {
+        val frames = new Frame[suffixes.length];
+
+        for (int i = 0; i < suffixes.length; i++)
+            frames[i] = new Frame(prefix, suffixes[i]);
+
+        return new NametagAnimation(interval, frames);
+    }
+
+    /**
+     * Returns the frames of this animation.
+     * 
+     * @return An unmodifiable view of the frames.
+     */
+    public List<Frame> getFrames() {
+        return List.of(frames);
+    }
+
+    /**
+     * Returns the frame that is shown at the given animator tick.
+     * 
+     * @param tick The animator tick.
+     * @return The frame to show.
+     */
+    Frame frameAt(long tick) {
+        return frames[(int) ((tick / interval) % frames.length)];
+    }
+
+    /**
+     * Returns whether a new frame starts at the given animator tick.
+     * 
+     * @param tick The animator tick.
+     * @return {@code true} if the frame changes on this tick.
+     */
+    boolean advancesAt(long tick) {
+        return frames.length > 1 && tick % interval == 0;
+    }
+
+    /** A single prefix and suffix pair of an animation. */
+    @Value
+    public static class Frame {
+        String prefix, suffix;
+    }
+}
@@ -0,0 +1,90 @@
+package io.isles.nametagapi;
+
+import java.util.Set;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import lombok.Getter;
+import lombok.val;
+
+/**
+ * Drives every {@link NametagAnimation} from a single repeating task. Each
+ * animation is advanced once per frame and the resulting frame is handed to
+ * every manager that currently displays it.
+ */
+final class NametagAnimator implements Runnable {
+    /**
+     * The animator that plays animations. The simulator swaps in its own
+     * while it replays a trace.
+     */
+    static NametagAnimator current = new NametagAnimator();
+
+    private final Object2ObjectOpenHashMap<NametagAnimation, Set<NametagManager>> users = new Object2ObjectOpenHashMap<>();
+    @Getter
+    private long tick;
+    private BukkitTask task;
+
+    /**
+     * Starts the animation timer.
+     * 
+     * @param plugin The plugin to schedule the timer with.
+     */
+    void start(Plugin plugin) {
+        if (task == null)
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this, 1L, 1L);
+    }
+
+    /**
+     * Stops the animation timer.
+     */
+    void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    /**
+     * Registers a manager that displays the given animation.
+     * 
+     * @param animation The animation.
+     * @param manager   The manager that displays it.
+     */
+    void register(NametagAnimation animation, NametagManager manager) {
+        users.computeIfAbsent(animation, k -> new ObjectOpenHashSet<>()).add(manager);
+    }
+
+    /**
+     * Unregisters a manager that no longer displays the given animation.
+     * 
+     * @param animation The animation.
+     * @param manager   The manager that displayed it.
+     */
+    void unregister(NametagAnimation animation, NametagManager manager) {
+        val managers = users.get(animation);
+
+        if (managers != null && managers.remove(manager) && managers.isEmpty())
+            users.remove(animation);
+    }
+
+    @Override
+    public void run() {
+        tick++;
+
+        for (val entry : users.object2ObjectEntrySet()) {
+            val animation = entry.getKey();
+
+            if (!animation.advancesAt(tick))
+                continue;
+
+            val frame = animation.frameAt(tick);
+
+            for (val manager : entry.getValue().toArray(new NametagManager[0]))
+                manager.showFrame(animation, frame);
+        }
+    }
+}
@@ -9,6 +9,7 @@ import lombok.Setter;
 
 /**
  * This event is fired whenever a nametag changes via NametagAPI.
+ * Contributions of a {@link NametagLayer} do not fire it.
  * 
  * @author Levi Webb (Original)
  * @author Hyphenical Technologies (Modifiers)
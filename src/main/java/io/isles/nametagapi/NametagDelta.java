@@ -0,0 +1,104 @@
+package io.isles.nametagapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import javax.annotation.Nullable;
+
+import lombok.Value;
+import lombok.val;
+
+/**
+ * A single nametag change shared through a {@link NametagTransport}. Deltas
+ * are ordered by their version, and ties are broken by the origin so every
+ * server converges on the same nametag.
+ */
+@Value
+public class NametagDelta {
+    /** The key of the synced group. */
+    String key;
+    /** The id of the server that published the delta. */
+    long origin;
+    long version;
+    String player;
+    /** The new prefix, or {@code null} if the nametag was cleared. */
+    @Nullable
+    String prefix;
+    /** The new suffix, or {@code null} if the nametag was cleared. */
+    @Nullable
+    String suffix;
+
+    /**
+     * Returns whether this delta clears the player's nametag.
+     * 
+     * @return {@code true} if the nametag was cleared.
+     */
+    public boolean isClear() {
+        return prefix == null;
+    }
+
+    /**
+     * Returns whether this delta supersedes a delta with the given version
+     * and origin.
+     * 
+     * @param version The version of the other delta.
+     * @param origin  The origin of the other delta.
+     * @return {@code true} if this delta is newer.
+     */
+    boolean supersedes(long version, long origin) {
+        return this.version > version || (this.version == version && this.origin > origin);
+    }
+
+    /**
+     * Encodes this delta.
+     * 
+     * @return The encoded delta.
+     */
+    public byte[] encode() {
+        val bytes = new ByteArrayOutputStream(64);
+
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeUTF(key);
+            out.writeLong(origin);
+            out.writeLong(version);
+            out.writeUTF(player);
+            out.writeBoolean(prefix != null);
+
+            if (prefix != null) {
+                out.writeUTF(prefix);
+                out.writeUTF(suffix);
+            }
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a delta encoded with {@link #encode()}.
+     * 
+     * @param message The encoded delta.
+     * @return The decoded delta.
+     * @throws IllegalArgumentException If the message is not a valid delta.
+     */
+    public static NametagDelta decode(byte[] message) {
+        try (var in = new DataInputStream(new ByteArrayInputStream(message))) {
+            val key = in.readUTF();
+            val origin = in.readLong();
+            val version = in.readLong();
+            val player = in.readUTF();
+
+            if (!in.readBoolean())
+                return new NametagDelta(key, origin, version, player, null, null);
+
+            return new NametagDelta(key, origin, version, player, in.readUTF(), in.readUTF());
+        } catch (IOException exc) {
+            throw new IllegalArgumentException("Malformed nametag delta", exc);
+        }
+    }
+}
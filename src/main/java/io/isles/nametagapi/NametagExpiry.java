@@ -0,0 +1,103 @@
+package io.isles.nametagapi;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+/**
+ * A hashed timing wheel for expiring nametags, advanced once per tick. Each
+ * timer is kept in the bucket of the tick it is due in, along with the amount
+ * of full turns of the wheel left before then, so advancing the wheel only
+ * looks at the timers of one bucket.
+ */
+final class NametagExpiry {
+    /** The amount of buckets, a power of two. */
+    private static final int SIZE = 512;
+    private static final int MASK = SIZE - 1;
+    @SuppressWarnings("unchecked")
+    private final List<Timer>[] buckets = new List[SIZE];
+    private int cursor;
+
+    /**
+     * Schedules a nametag to expire.
+     * 
+     * @param manager The manager of the group the nametag is set in.
+     * @param player  The player the nametag is set on.
+     * @param ticks   The amount of ticks until the nametag expires, at least
+     *                1.
+     * @return The timer, which can be cancelled.
+     */
+    Timer schedule(NametagManager manager, String player, long ticks) {
+        if (ticks < 1)
+            throw new IllegalArgumentException("Expiry must be at least one tick away: " + ticks);
+
+        val timer = new Timer(manager, player);
+        timer.rounds = (ticks - 1) / SIZE;
+        int index = (int) ((cursor + ticks) & MASK);
+
+        if (buckets[index] == null)
+            buckets[index] = new ObjectArrayList<>();
+
+        buckets[index].add(timer);
+        return timer;
+    }
+
+    /**
+     * Advances the wheel by one tick and expires the nametags due in it. All
+     * of them are withdrawn before the managers resolve nametags again, so
+     * they are restored as one batch.
+     */
+    void tick() {
+        tick(timer -> timer.manager.expire(timer));
+    }
+
+    /**
+     * Advances the wheel by one tick and hands the timers due in it to the
+     * given consumer.
+     * 
+     * @param expire Receives the due timers.
+     */
+    void tick(Consumer<Timer> expire) {
+        cursor = (cursor + 1) & MASK;
+        val bucket = buckets[cursor];
+
+        if (bucket == null || bucket.isEmpty())
+            return;
+
+        val due = new ObjectArrayList<Timer>();
+
+        bucket.removeIf(timer -> {
+            if (timer.cancelled)
+                return true;
+
+            if (timer.rounds > 0) {
+                timer.rounds--;
+                return false;
+            }
+
+            due.add(timer);
+            return true;
+        });
+
+        for (val timer : due)
+            expire.accept(timer);
+    }
+
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    static final class Timer {
+        private final NametagManager manager;
+        @Getter
+        private final String player;
+        private long rounds;
+        private boolean cancelled;
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package io.isles.nametagapi;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.bukkit.plugin.Plugin;
+
+import gg.mineral.api.nametag.NametagGroup;
+import io.isles.nametagapi.TemplateBinding.Slot;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import lombok.Getter;
+import lombok.val;
+
+/**
+ * A prefix and suffix layer owned by one plugin. Several plugins can
+ * contribute to the nametag of the same player without overwriting each
+ * other: the prefix and suffix are each taken from the highest priority layer
+ * that contributes them, and the nametag set directly through
+ * {@link NametagAPI} acts as the base below every layer. Layers with the same
+ * priority are ordered by registration, the first registered winning.
+ * 
+ * <br>
+ * <br>
+ * 
+ * Contributions are resolved once per tick, and packets are only sent when
+ * the resolved nametag changes. Layers must be used from the main thread.
+ * Contributions do not fire a {@link NametagChangeEvent}: they cannot be
+ * cancelled, and they do not always change the shown nametag. The resolved
+ * changes are published through {@link NametagGroup#getChanges()}.
+ * 
+ * <br>
+ * <br>
+ * 
+ * Players in a {@link LogicalTeam} or playing an animation show that
+ * nametag instead: team membership takes precedence over layers. The
+ * contributions are kept and apply once the player leaves the team.
+ * 
+ * <br>
+ * <br>
+ * 
+ * A layer is unregistered when its plugin is disabled.
+ */
+public final class NametagLayer {
+    private static final AtomicInteger NEXT_ORDER = new AtomicInteger();
+    /** The registered layers owned by a plugin. */
+    private static final Set<NametagLayer> LAYERS = new ObjectOpenHashSet<>();
+    @Getter
+    private final Plugin plugin;
+    @Getter
+    private final String name;
+    @Getter
+    private final int priority;
+    private final int order = NEXT_ORDER.getAndIncrement();
+    /** The managers this layer contributes to. */
+    private final Set<NametagManager> managers = new ObjectOpenHashSet<>();
+    @Getter
+    private boolean registered = true;
+
+    NametagLayer(Plugin plugin, String name, int priority) {
+        this.plugin = plugin;
+        this.name = name;
+        this.priority = priority;
+
+        if (plugin != null)
+            LAYERS.add(this);
+    }
+
+    /**
+     * Unregisters every layer owned by the given plugin, withdrawing their
+     * contributions. Called when the plugin is disabled.
+     * 
+     * @param plugin The plugin.
+     */
+    static void unregisterAll(Plugin plugin) {
+        for (val layer : LAYERS.toArray(new NametagLayer[0]))
+            if (layer.plugin == plugin)
+                layer.unregister();
+    }
+
+    /**
+     * Sets the prefix and suffix this layer contributes to a player.
+     * 
+     * @param group  The group to contribute to.
+     * @param player The player.
+     * @param prefix The prefix, or {@code null} to leave it to other layers.
+     * @param suffix The suffix, or {@code null} to leave it to other layers.
+     */
+    public void set(NametagGroup group, String player, @Nullable String prefix, @Nullable String suffix) {
+        contribute(group, player, Slot.PREFIX, prefix);
+        contribute(group, player, Slot.SUFFIX, suffix);
+    }
+
+    /**
+     * Sets the prefix this layer contributes to a player, keeping its suffix.
+     * 
+     * @param group  The group to contribute to.
+     * @param player The player.
+     * @param prefix The prefix, or {@code null} to leave it to other layers.
+     */
+    public void setPrefix(NametagGroup group, String player, @Nullable String prefix) {
+        contribute(group, player, Slot.PREFIX, prefix);
+    }
+
+    /**
+     * Sets the suffix this layer contributes to a player, keeping its prefix.
+     * 
+     * @param group  The group to contribute to.
+     * @param player The player.
+     * @param suffix The suffix, or {@code null} to leave it to other layers.
+     */
+    public void setSuffix(NametagGroup group, String player, @Nullable String suffix) {
+        contribute(group, player, Slot.SUFFIX, suffix);
+    }
+
+    /**
+     * Withdraws everything this layer contributes to a player.
+     * 
+     * @param group  The group.
+     * @param player The player.
+     */
+    public void withdraw(NametagGroup group, String player) {
+        group.getManager().withdraw(this, player);
+    }
+
+    /**
+     * Withdraws every contribution of this layer and unregisters it.
+     */
+    public void unregister() {
+        if (!registered)
+            return;
+
+        registered = false;
+        LAYERS.remove(this);
+
+        for (val manager : managers.toArray(new NametagManager[0]))
+            manager.withdrawAll(this);
+
+        managers.clear();
+    }
+
+    private void contribute(NametagGroup group, String player, Slot slot, @Nullable String value) {
+        if (!registered)
+            throw new IllegalStateException("This layer has been unregistered.");
+
+        val manager = group.getManager();
+
+        if (manager.contribute(this, player, slot, value))
+            managers.add(manager);
+    }
+
+    /**
+     * Called by a manager that no longer holds contributions of this layer.
+     * 
+     * @param manager The manager.
+     */
+    void forget(NametagManager manager) {
+        managers.remove(manager);
+    }
+
+    /**
+     * Returns whether this layer takes precedence over the given one.
+     * 
+     * @param other The other layer.
+     * @return {@code true} if this layer wins over the other.
+     */
+    boolean precedes(NametagLayer other) {
+        return priority != other.priority ? priority > other.priority : order < other.order;
+    }
+}
@@ -0,0 +1,18 @@
+package io.isles.nametagapi;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+
+/**
+ * Unregisters the {@link NametagLayer}s of plugins that are disabled, so
+ * their contributions do not outlive them.
+ */
+public final class NametagLayerListener implements Listener {
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPluginDisable(PluginDisableEvent event) {
+        NametagLayer.unregisterAll(event.getPlugin());
+    }
+}
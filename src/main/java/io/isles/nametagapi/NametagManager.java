@@ -2,20 +2,34 @@ package io.isles.nametagapi;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
 import java.util.logging.Level;
 
 import javax.annotation.Nullable;
 
-import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 
+import gg.mineral.api.nametag.NametagChange;
 import gg.mineral.api.nametag.NametagGroup;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
 
@@ -31,12 +45,117 @@ import lombok.val;
 @RequiredArgsConstructor
 public final class NametagManager {
 
-    /** Prefix to append to all team names. */
-    private static final String TEAM_NAME_PREFIX = "NTP";
+    /** Follows the sort key in the names of prefix/suffix lookup teams. */
+    private static final char LOOKUP_TEAM_KIND = 'P';
+    /** Follows the sort key in the names of animated teams. */
+    private static final char ANIMATED_TEAM_KIND = 'A';
+    /** Follows the sort key in the names of logical teams. */
+    private static final char LOGICAL_TEAM_KIND = 'L';
+    /** The maximum length of a team name on 1.8 clients. */
+    private static final int MAX_TEAM_NAME_LENGTH = 16;
+    /** The radix team ids and namespaces are written in. */
+    private static final int ID_RADIX = Character.MAX_RADIX;
+    /** The length of the longest team id. */
+    private static final int MAX_ID_LENGTH = Integer.toString(Integer.MAX_VALUE, ID_RADIX).length();
+    /**
+     * The amount of namespaces child groups can use at once, so that every
+     * team name fits in {@link #MAX_TEAM_NAME_LENGTH} characters: the sort
+     * key, the kind of team, the namespace with its separator and the id.
+     */
+    private static final int MAX_NAMESPACES = (int) Math.pow(ID_RADIX,
+            MAX_TEAM_NAME_LENGTH - SortKey.LENGTH - 1 - 1 - MAX_ID_LENGTH);
+    /** Managers whose nametags changed since the last published snapshot. */
+    private static final Collection<NametagManager> DIRTY = new ObjectOpenHashSet<>();
+    /** The namespaces in use by child groups. */
+    private static final BitSet NAMESPACES = new BitSet();
+    /**
+     * Players that missed packets because their connection was not writable,
+     * with the manager of the group they are in.
+     */
+    private static final Map<Player, NametagManager> BEHIND = new Object2ObjectLinkedOpenHashMap<>();
+    /** Below this many families of groups, the flush phase runs on the main thread. */
+    private static final int PARALLEL_THRESHOLD = 8;
+    /**
+     * The pool the flush phase prepares packets on, or {@code null} to send
+     * packets as nametags change.
+     */
+    @Nullable
+    private static ForkJoinPool pool;
+    /** The batch the current thread prepares packets into, if any. */
+    private static final ThreadLocal<Batch> PREPARING = new ThreadLocal<>();
+    /**
+     * Managers whose changes were left to the flush phase, so the players of
+     * their group and of every group inheriting from it must be synced.
+     */
+    private static final Collection<NametagManager> STALE = new ObjectLinkedOpenHashSet<>();
+    /** Managers with layered nametags that must be resolved again. */
+    private static final Collection<NametagManager> UNRESOLVED = new ObjectOpenHashSet<>();
     private final NametagGroup group;
-    private Map<TeamInfo, List<String>> teams = new Object2ObjectOpenHashMap<>();
+    private CompactMap<TeamInfo, List<String>> teams = new CompactMap<>();
+    private CompactMap<String, TeamInfo> playerTeams = new CompactMap<>();
+    private CompactMap<NametagAnimation, TeamInfo> animations = new CompactMap<>();
+    private CompactMap<String, LogicalTeam> logicalTeams = new CompactMap<>();
+    /** The ids in use by logical and animated teams. */
+    private IntList teamIds = new IntArrayList();
+    /** The layered nametags of players with contributions from a layer. */
+    private CompactMap<String, LayeredTag> layered = new CompactMap<>();
+    /** The amount of players each layer contributes to in this group. */
+    private CompactMap<NametagLayer, Integer> layerUses = new CompactMap<>();
+    /** Players whose layered nametag changed since it was last resolved. */
+    @Nullable
+    private Set<String> unresolved;
+    /**
+     * Whether layered nametags are being resolved, so changes only reach the
+     * listeners following layers.
+     */
+    private boolean resolving;
+    /** The pending expiry of each player with an expiring nametag. */
+    private CompactMap<String, NametagExpiry.Timer> expiries = new CompactMap<>();
+    /** The tab list sort weights of players that do not use the default. */
+    private CompactMap<String, Integer> sortWeights = new CompactMap<>();
+    /** The listeners of this manager, or {@code null} until one is added. */
+    @Nullable
+    private List<TagListener> listeners;
+    private SubmissionPublisher<NametagChange> publisher;
+    /** The listener that feeds {@link #publisher}. */
+    private TagListener publishing;
+    private long sequence;
+    /**
+     * The nametags as of the last published snapshot, readable from any
+     * thread.
+     */
+    @Getter
+    private volatile NametagSnapshot snapshot = NametagSnapshot.EMPTY;
+    private boolean dirty;
+    /**
+     * The effective teams of a child group, merged with those of its
+     * ancestors, or {@code null} until needed again after a change.
+     */
+    @Nullable
+    private Map<String, TeamInfo> effectiveTeams;
+    /**
+     * The slots of the teams updated since the flush phase last ran, or
+     * {@code null} if there are none.
+     */
+    @Nullable
+    private BitSet updatedSlots;
     private IntList list = new IntArrayList();
+    /** The teams of this manager, indexed by their slot. */
+    private List<TeamInfo> slots = new ObjectArrayList<>();
+    private IntArrayList freeSlots = new IntArrayList();
+    /** What the client of each viewer has received from this manager. */
+    private CompactMap<UUID, ClientLedger> ledgers = new CompactMap<>();
     private Plugin plugin;
+    /** The manager of the parent group, or {@code null} for root groups. */
+    @Nullable
+    private NametagManager parent;
+    /**
+     * Appended to team name prefixes so the teams of a child group never
+     * clash with the teams it inherits.
+     */
+    private String namespace = "";
+    /** The number of {@link #namespace}, or -1 for root groups. */
+    private int namespaceId = -1;
 
     /**
      * Initializes this class and loads current teams that are manipulated by
@@ -45,27 +164,32 @@ public final class NametagManager {
     public void load() {
         plugin = NametagPlugin.getInstance();
 
-        for (val teamInfo : getTeams()) {
-            int entry = -1;
+        if (group.getParent() != null) {
+            parent = group.getParent().getManager();
+            namespaceId = claimNamespace();
+            namespace = Integer.toString(namespaceId, ID_RADIX) + "_";
+        }
 
-            try {
-                entry = Integer.parseInt(teamInfo.getName());
-            } catch (Exception exc) {
-                plugin.getLogger().log(Level.FINEST, "Failed to parse integer: " + teamInfo.getName());
-            }
+        for (val teamInfo : getTeams()) {
+            int entry = getTeamId(teamInfo);
 
             if (entry != -1)
                 list.add(entry);
+            else
+                plugin.getLogger().log(Level.FINEST, "Failed to parse integer: " + teamInfo.getName());
         }
     }
 
+    /**
+     * Returns whether the player currently has a nametag in this group. Reads
+     * live state, so this must be called on the main thread; other threads
+     * use {@link NametagSnapshot#isManaged(String)}.
+     * 
+     * @param player The player to check.
+     * @return {@code true} if there is a custom nametag set.
+     */
     boolean isManaged(String player) {
-        for (val entry : teams.entrySet())
-            for (val listedPlayer : entry.getValue())
-                if (listedPlayer.equalsIgnoreCase(player))
-                    return true;
-
-        return false;
+        return getEffectiveTeam(player) != null;
     }
 
     /**
@@ -83,13 +207,25 @@ public final class NametagManager {
      * @param suffix The suffix to set for the given player.
      */
     void update(String player, String prefix, String suffix) {
+        NametagRecorder.tagSet(group, player, prefix, suffix, false);
+        val tag = layered.get(player);
+
+        if (tag != null) {
+            tag.setBase(prefix == null || prefix.isEmpty() ? tag.getBasePrefix() : prefix,
+                    suffix == null || suffix.isEmpty() ? tag.getBaseSuffix() : suffix);
+            unpin(player);
+            markUnresolved(player);
+            fireBaseChanged(player, tag);
+            return;
+        }
+
         if (prefix == null || prefix.isEmpty())
             prefix = getPrefix(player);
 
         if (suffix == null || suffix.isEmpty())
             suffix = getSuffix(player);
 
-        val teamInfo = getTeamInfo(prefix, suffix);
+        val teamInfo = getTeamInfo(prefix, suffix, getSortWeight(player));
 
         addToTeam(teamInfo, player);
     }
@@ -109,405 +245,1851 @@ public final class NametagManager {
      * @param suffix The suffix to set for the given player.
      */
     void overlap(String player, String prefix, String suffix) {
+        NametagRecorder.tagSet(group, player, prefix, suffix, true);
+        val tag = layered.get(player);
+
+        if (tag != null) {
+            tag.setBase(prefix == null ? "" : prefix, suffix == null ? "" : suffix);
+            unpin(player);
+            markUnresolved(player);
+            fireBaseChanged(player, tag);
+            return;
+        }
+
         if (prefix == null)
             prefix = "";
 
         if (suffix == null)
             suffix = "";
 
-        val t = getTeamInfo(prefix, suffix);
+        val t = getTeamInfo(prefix, suffix, getSortWeight(player));
 
         addToTeam(t, player);
     }
 
     /**
-     * Clears a player's nametag.
-     * 
-     * @param player The specified player.
-     */
-    public void clear(String player) {
-        removeFromTeam(player);
-    }
-
-    /**
-     * Retrieves a player's prefix
+     * Moves a player into the shared team of the given animation, declaring
+     * the team if no other player in this group uses the animation yet.
+     * Subsequent frames are applied by updating the team in place.
      * 
-     * @param player The specified player.
-     * @return The player's prefix.
+     * @param player    The specified player.
+     * @param animation The animation to play.
      */
-    String getPrefix(String player) {
-        for (val team : getTeams())
-            for (val p : getTeamPlayers(team))
-                if (p.equals(player))
-                    return team.getPrefix();
+    void animate(String player, NametagAnimation animation) {
+        NametagRecorder.animated(group, player, animation);
+        var team = animations.get(animation);
+
+        if (team == null) {
+            val animator = NametagAnimator.current;
+            val frame = animation.frameAt(animator.getTick());
+            team = declareTeam(teamName(SortKey.DEFAULT, ANIMATED_TEAM_KIND, nextId(teamIds)), SortKey.DEFAULT,
+                    frame.getPrefix(), frame.getSuffix());
+            animations.put(animation, team);
+            animator.register(animation, this);
+        }
 
-        return "";
+        addToTeam(team, player);
     }
 
     /**
-     * Retrieves a player's suffix
+     * Applies an animation frame to the team of the given animation. Frames
+     * are transient, so tag listeners are only told when a player starts or
+     * stops being animated, not on every frame.
      * 
-     * @param player The specified player.
-     * @return The player's suffix.
+     * @param animation The animation that advanced.
+     * @param frame     The frame to show.
      */
-    String getSuffix(String player) {
-        for (val team : getTeams())
-            for (val p : getTeamPlayers(team))
-                if (p.equals(player))
-                    return team.getSuffix();
+    void showFrame(NametagAnimation animation, NametagAnimation.Frame frame) {
+        val team = animations.get(animation);
 
-        return "";
+        if (team == null)
+            return;
+
+        team.setPrefix(frame.getPrefix());
+        team.setSuffix(frame.getSuffix());
+        sendPacketsUpdateTeam(team);
+        markDirty();
     }
 
     /**
-     * Retrieves the player's entire name with both the prefix and suffix.
+     * Creates a named logical team. The prefix and suffix of a logical team
+     * can be changed for all of its players with a single team update packet
+     * per viewer.
      * 
-     * @param player The specified player.
-     * @return The entire nametag.
+     * @param name   The name of the team, unique within this manager.
+     * @param prefix The team's prefix.
+     * @param suffix The team's suffix.
+     * @return The created team.
      */
-    String getFormattedName(String player) {
-        return getPrefix(player) + player + getSuffix(player);
+    public LogicalTeam createLogicalTeam(String name, String prefix, String suffix) {
+        return createLogicalTeam(name, prefix, suffix, SortKey.DEFAULT);
     }
 
     /**
-     * Sends the current team setup and their players to the given player. This
-     * should be called when players join the server.
+     * Creates a named logical team listed at the given position in the tab
+     * list.
      * 
-     * @param player The player to send the packets to.
+     * @param name   The name of the team, unique within this manager.
+     * @param prefix The team's prefix.
+     * @param suffix The team's suffix.
+     * @param weight The tab list sort weight of the team; lower weights are
+     *               listed first.
+     * @return The created team.
      */
-    public void sendTeamsToPlayer(Player player) {
-        try {
-            for (val team : getTeams()) {
-                var packet = new PacketHandler(team.getName(), team.getPrefix(), team.getSuffix(),
-                        new ArrayList<String>(), 0);
-                packet.sendToPlayer(player);
-                packet = new PacketHandler(team.getName(), Arrays.asList(getTeamPlayers(team)), 3);
-                packet.sendToPlayer(player);
-            }
-        } catch (Exception exc) {
-            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam): ");
-            exc.printStackTrace();
-        }
+    public LogicalTeam createLogicalTeam(String name, String prefix, String suffix, int weight) {
+        if (logicalTeams.containsKey(name))
+            throw new IllegalArgumentException("A logical team named " + name + " already exists");
+
+        NametagRecorder.teamCreated(group, name, prefix == null ? "" : prefix, suffix == null ? "" : suffix, weight);
+        val team = declareTeam(teamName(weight, LOGICAL_TEAM_KIND, nextId(teamIds)), weight,
+                prefix == null ? "" : prefix, suffix == null ? "" : suffix);
+        val logicalTeam = new LogicalTeam(name, this, team);
+        logicalTeams.put(name, logicalTeam);
+        return logicalTeam;
     }
 
     /**
-     * Clears out all teams and removes them for all the players. Called when
-     * the plugin is disabled.
+     * Returns the logical team with the given name.
+     * 
+     * @param name The name of the team.
+     * @return The team, or {@code null} if there is none.
      */
-    public void reset() {
-        for (val team : getTeams())
-            removeTeam(team);
+    @Nullable
+    public LogicalTeam getLogicalTeam(String name) {
+        return logicalTeams.get(name);
     }
 
-    /**
-     * Declares a new team in the scoreboard.dat of the given main world.
-     * 
-     * @param name   The team name.
-     * @param prefix The team's prefix.
-     * @param suffix The team's suffix.
-     * @return The created TeamInfo.
-     */
-    private TeamInfo declareTeam(String name, String prefix, String suffix) {
-        if (getTeam(name) != null) {
-            val team = getTeam(name);
-            removeTeam(team);
-        }
+    void updateLogicalTeam(LogicalTeam logicalTeam, String prefix, String suffix) {
+        NametagRecorder.teamUpdated(group, logicalTeam.getName(), prefix, suffix);
+        val team = logicalTeam.team;
 
-        val team = new TeamInfo(name);
+        if (team.getPrefix().equals(prefix) && team.getSuffix().equals(suffix))
+            return;
 
         team.setPrefix(prefix);
         team.setSuffix(suffix);
+        sendPacketsUpdateTeam(team);
 
-        register(team);
+        for (val player : getTeamPlayers(team))
+            fireTagChanged(player, team);
+    }
 
-        return team;
+    void addToLogicalTeam(LogicalTeam logicalTeam, String player) {
+        NametagRecorder.teamJoined(group, logicalTeam.getName(), player);
+
+        if (playerTeams.get(player) != logicalTeam.team)
+            addToTeam(logicalTeam.team, player);
     }
 
-    /**
-     * Gets the ScoreboardTeam for the given prefix and suffix, and if none
-     * matches, creates a new team with the provided info. This also removes
-     * teams that currently have no players.
-     * 
-     * @param prefix The team's prefix.
-     * @param suffix The team's suffix.
-     * @return A team with the corresponding prefix/suffix.
-     */
-    private TeamInfo getTeamInfo(String prefix, String suffix) {
-        update();
+    void removeFromLogicalTeam(LogicalTeam logicalTeam, String player) {
+        NametagRecorder.teamLeft(group, logicalTeam.getName(), player);
 
-        for (int t : list) {
-            if (getTeam(TEAM_NAME_PREFIX + t) != null) {
-                val team = getTeam(TEAM_NAME_PREFIX + t);
+        if (playerTeams.get(player) != logicalTeam.team)
+            return;
 
-                if (team != null && team.getSuffix().equals(suffix) && team.getPrefix().equals(prefix))
-                    return team;
-            }
-        }
+        unpin(player);
+
+        if (layered.containsKey(player))
+            markUnresolved(player);
+    }
+
+    Collection<String> getLogicalTeamPlayers(LogicalTeam logicalTeam) {
+        val members = teams.get(logicalTeam.team);
+        return members != null ? members : List.of();
+    }
+
+    void setLogicalTeamWeight(LogicalTeam logicalTeam, int weight) {
+        SortKey.check(weight);
+        NametagRecorder.teamWeighted(group, logicalTeam.getName(), weight);
 
-        return declareTeam(TEAM_NAME_PREFIX + nextName(), prefix, suffix);
+        if (logicalTeam.team.getWeight() != weight)
+            renameTeams(Map.of(logicalTeam, weight));
     }
 
     /**
-     * Returns the next available team name that is not taken.
+     * Moves a logical team right before or after another one in the tab list.
+     * The team takes the weight halfway between its new neighbours, so only
+     * the moved team is renamed. When there is no weight left between the
+     * neighbours, all logical teams are spread evenly over the weights again,
+     * leaving the same gap around each, and renamed in one batch.
      * 
-     * @return an integer that for a team name that is not taken.
+     * @param logicalTeam The team to move.
+     * @param other       The team to place it next to.
+     * @param before      Whether to place it before the other team.
      */
-    private int nextName() {
-        int at = 0;
-        boolean cont = true;
+    void placeLogicalTeam(LogicalTeam logicalTeam, LogicalTeam other, boolean before) {
+        NametagRecorder.teamPlaced(group, logicalTeam.getName(), other.getName(), before);
 
-        while (cont) {
-            cont = false;
+        if (logicalTeam == other)
+            return;
 
-            for (int t : list) {
-                if (t == at) {
-                    at++;
-                    cont = true;
-                }
-            }
+        val order = new ObjectArrayList<LogicalTeam>(logicalTeams.values());
+        order.remove(logicalTeam);
+        order.sort(Comparator.comparingInt((LogicalTeam t) -> t.team.getWeight()).thenComparing(t -> t.team.getName()));
+
+        int index = order.indexOf(other) + (before ? 0 : 1);
+        int lower = index == 0 ? SortKey.MIN - 1 : order.get(index - 1).team.getWeight();
+        int upper = index == order.size() ? SortKey.MAX + 1 : order.get(index).team.getWeight();
+
+        if (upper - lower >= 2) {
+            int weight = lower + (upper - lower) / 2;
+
+            if (logicalTeam.team.getWeight() != weight)
+                renameTeams(Map.of(logicalTeam, weight));
+
+            return;
         }
 
-        list.add(at);
-        return at;
+        order.add(index, logicalTeam);
+        int gap = SortKey.SPACE / (order.size() + 1);
+        val weights = new LinkedHashMap<LogicalTeam, Integer>();
+
+        for (int i = 0; i < order.size(); i++)
+            if (order.get(i).team.getWeight() != gap * (i + 1))
+                weights.put(order.get(i), gap * (i + 1));
+
+        renameTeams(weights);
     }
 
     /**
-     * Removes any teams that do not have any players in them.
+     * Moves logical teams to new sort weights. Clients only order teams by
+     * name, so each team is removed and declared again under its new name.
+     * All the teams are removed before any is declared again, so a rebalance
+     * reaches each viewer as one burst of packets.
+     * 
+     * @param weights The new weight of each team.
      */
-    private void update() {
-        for (val team : getTeams()) {
-            int entry = -1;
-
-            try {
-                entry = Integer.parseInt(team.getName());
-            } catch (Exception exc) {
-            }
-
-            if (entry != -1) {
-                if (getTeamPlayers(team).length == 0) {
-                    removeTeam(team);
-                    list.removeInt(entry);
-                }
-            }
+    private void renameTeams(Map<LogicalTeam, Integer> weights) {
+        for (val logicalTeam : weights.keySet())
+            sendPacketsRemoveTeam(logicalTeam.team);
+
+        for (val entry : weights.entrySet()) {
+            val logicalTeam = entry.getKey();
+            val previous = logicalTeam.team;
+            int weight = entry.getValue();
+            val renamed = new TeamInfo(SortKey.encode(weight) + previous.getName().substring(SortKey.LENGTH));
+            renamed.setPrefix(previous.getPrefix());
+            renamed.setSuffix(previous.getSuffix());
+            renamed.setSlot(previous.getSlot());
+            renamed.setWeight(weight);
+
+            val members = teams.remove(previous);
+            teams.put(renamed, members);
+            slots.set(renamed.getSlot(), renamed);
+
+            for (val member : members)
+                playerTeams.put(member, renamed);
+
+            logicalTeam.team = renamed;
+            sendPacketsAddTeam(renamed);
+
+            if (!members.isEmpty())
+                sendPacketsAddToTeam(renamed, members);
         }
     }
 
     /**
-     * Sends packets out to players to add the given team
+     * Returns the tab list sort weight of the given player.
      * 
-     * @param team the team to add
+     * @param player The specified player.
+     * @return The player's weight.
      */
-    private void sendPacketsAddTeam(TeamInfo team) {
-        val players = group.getPlayers();
-        try {
-            for (val p : players) {
-                val mod = new PacketHandler(team.getName(), team.getPrefix(), team.getSuffix(),
-                        new ArrayList<String>(), 0);
-                mod.sendToPlayer(p);
-            }
-        } catch (Exception exc) {
-            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
-            exc.printStackTrace();
-        }
+    int getSortWeight(String player) {
+        val weight = sortWeights.get(player);
+        return weight != null ? weight : SortKey.DEFAULT;
     }
 
     /**
-     * Sends packets out to a player to remove the given team
+     * Sets the tab list sort weight of the given player. Players with a
+     * prefix/suffix nametag are moved to the team of their nametag with the
+     * new weight; players in a logical or animated team are listed by the
+     * weight of that team instead. Players without a nametag keep the weight
+     * until the team of their next nametag is created with it.
      * 
-     * @param team   the team to remove
-     * @param player the player to remove the team from
+     * @param player The specified player.
+     * @param weight The player's weight; lower weights are listed first.
      */
-    public void sendPacketsRemoveTeam(TeamInfo team, Player player) {
-        boolean cont = false;
+    void setSortWeight(String player, int weight) {
+        SortKey.check(weight);
+        NametagRecorder.sortWeightSet(group, player, weight);
 
-        for (val t : getTeams())
-            if (t == team)
-                cont = true;
+        if (weight == SortKey.DEFAULT)
+            sortWeights.remove(player);
+        else
+            sortWeights.put(player, weight);
 
-        if (!cont)
-            return;
+        val team = playerTeams.get(player);
 
-        try {
-            val mod = new PacketHandler(team.getName(), team.getPrefix(), team.getSuffix(),
-                    new ArrayList<String>(), 1);
-            mod.sendToPlayer(player);
-        } catch (Exception exc) {
-            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
-            exc.printStackTrace();
+        if (team != null && team.getWeight() != weight && getTeamId(team) != -1)
+            addToTeam(getTeamInfo(team.getPrefix(), team.getSuffix(), weight), player);
+    }
+
+    void deleteLogicalTeam(LogicalTeam logicalTeam) {
+        NametagRecorder.teamDeleted(group, logicalTeam.getName());
+        logicalTeams.remove(logicalTeam.getName());
+        logicalTeam.markDeleted();
+
+        val team = logicalTeam.team;
+        val members = getTeamPlayers(team);
+        removeTeam(team);
+        teamIds.rem(parseId(team));
+
+        for (val player : members) {
+            fireTagChanged(player, null);
+
+            if (layered.containsKey(player))
+                markUnresolved(player);
         }
+
+        restoreInherited(Arrays.asList(members));
     }
 
     /**
-     * Sends packets out to players to remove the given team
+     * Applies the given nametags in bulk. Players sharing a prefix and suffix
+     * are added to their team with a single packet per viewer instead of one
+     * packet per player. Players with a layered nametag get the nametag as
+     * their base, like through {@link #overlap(String, String, String)}.
      * 
-     * @param team the team to remove
+     * @param tags The nametags to apply, mapping each player to a
+     *             {@code {prefix, suffix}} pair.
      */
-    private void sendPacketsRemoveTeam(TeamInfo team) {
-        boolean cont = false;
+    void restore(Map<String, String[]> tags) {
+        NametagRecorder.tagsRestored(group, tags);
+        val joins = new Object2ObjectOpenHashMap<TeamInfo, List<String>>();
+
+        for (val entry : tags.entrySet()) {
+            val player = entry.getKey();
+            val tag = entry.getValue();
+            val layeredTag = layered.get(player);
+
+            if (layeredTag != null) {
+                layeredTag.setBase(tag[0] == null ? "" : tag[0], tag[1] == null ? "" : tag[1]);
+                unpin(player);
+                markUnresolved(player);
+                fireBaseChanged(player, layeredTag);
+                continue;
+            }
 
-        for (val t : getTeams())
-            if (t == team)
-                cont = true;
+            removeFromTeam(player);
 
-        if (!cont)
-            return;
+            val team = getTeamInfo(tag[0] == null ? "" : tag[0], tag[1] == null ? "" : tag[1], getSortWeight(player));
+            teams.get(team).add(player);
+            playerTeams.put(player, team);
+            joins.computeIfAbsent(team, k -> new ArrayList<>()).add(player);
+        }
 
-        val players = group.getPlayers();
-        try {
-            for (val p : players) {
-                val mod = new PacketHandler(team.getName(), team.getPrefix(), team.getSuffix(),
-                        new ArrayList<String>(), 1);
-                mod.sendToPlayer(p);
-            }
-        } catch (Exception exc) {
-            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
-            exc.printStackTrace();
+        for (val entry : joins.entrySet()) {
+            val team = entry.getKey();
+            sendPacketsAddToTeam(team, entry.getValue());
+
+            for (val player : entry.getValue())
+                fireTagChanged(player, team);
         }
     }
 
-    public void removeAllTeamsForPlayer(Player player) {
-        for (val team : getTeams()) {
-            sendPacketsRemoveTeamForPlayer(team, player);
-            teams.computeIfPresent(team, (k, v) -> {
-                v.remove(player.getName());
-                return v;
-            });
-        }
+    /**
+     * Returns the amount of teams declared in this group.
+     * 
+     * @return The amount of teams.
+     */
+    int getTeamCount() {
+        return teams.size();
     }
 
-    private void sendPacketsRemoveTeamForPlayer(TeamInfo team, Player player) {
-        boolean cont = false;
+    /**
+     * Registers a listener that is notified of every applied nametag change.
+     * 
+     * @param listener The listener to register.
+     */
+    void addListener(TagListener listener) {
+        if (listeners == null)
+            listeners = new ObjectArrayList<>(1);
+
+        listeners.add(listener);
+    }
 
-        for (val t : getTeams())
-            if (t == team)
-                cont = true;
+    /**
+     * Unregisters a previously registered listener.
+     * 
+     * @param listener The listener to unregister.
+     */
+    void removeListener(TagListener listener) {
+        if (listeners != null)
+            listeners.remove(listener);
+    }
 
-        if (!cont)
-            return;
+    /**
+     * Returns the publisher of applied nametag changes, creating it on first
+     * use. Every subscriber has its own bounded buffer and receives changes
+     * on the common pool, so subscribers never block the main thread. When a
+     * subscriber's buffer is full, further changes are dropped for that
+     * subscriber only, which it can detect through a gap in
+     * {@link NametagChange#getSequence()}.
+     * 
+     * @return The publisher of nametag changes.
+     */
+    public Flow.Publisher<NametagChange> getPublisher() {
+        if (publisher == null) {
+            publisher = new SubmissionPublisher<>();
+            publishing = new TagListener() {
+                @Override
+                public void onTagChanged(String player, @Nullable String prefix, @Nullable String suffix) {
+                    publisher.offer(new NametagChange(sequence++, player, prefix, suffix),
+                            (subscriber, change) -> false);
+                }
 
-        try {
-            val mod = new PacketHandler(team.getName(), team.getPrefix(), team.getSuffix(),
-                    new ArrayList<String>(), 1);
-            mod.sendToPlayer(player);
-        } catch (Exception exc) {
-            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
-            exc.printStackTrace();
+                @Override
+                public boolean followsLayers() {
+                    return true;
+                }
+            };
+            addListener(publishing);
         }
+
+        return publisher;
     }
 
     /**
-     * Sends out packets to players to add the given player to the given team
+     * Returns the nametags of all players managed by this manager.
      * 
-     * @param team   - The team to use
-     * @param player - The player to add
+     * @return A map of each player to a {@code {prefix, suffix}} pair.
      */
-    private void sendPacketsAddToTeam(TeamInfo team, String player) {
-        boolean cont = false;
+    Map<String, String[]> getTags() {
+        val tags = new Object2ObjectOpenHashMap<String, String[]>();
 
-        for (val t : getTeams())
-            if (t == team)
-                cont = true;
-
-        if (!cont)
-            return;
+        for (val entry : teams.entrySet())
+            for (val player : entry.getValue())
+                tags.put(player, new String[] { entry.getKey().getPrefix(), entry.getKey().getSuffix() });
 
-        val players = group.getPlayers();
-        try {
-            for (val p : players) {
-                PacketHandler packet = new PacketHandler(team.getName(), Arrays.asList(player), 3);
-                packet.sendToPlayer(p);
-            }
-        } catch (Exception exc) {
-            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
-            exc.printStackTrace();
-        }
+        return tags;
     }
 
     /**
-     * Sends out packets to players to remove the given player from the given
-     * team.
+     * Clears a player's nametag.
      * 
-     * @param team   - The team to remove from
-     * @param player - The player to remove
+     * @param player The specified player.
      */
-    private void sendPacketsRemoveFromTeam(TeamInfo team, String player) {
-        boolean cont = false;
+    public void clear(String player) {
+        NametagRecorder.tagCleared(group, player);
+        clearTag(player);
+    }
 
-        for (val t : getTeams())
-            if (t == team)
-                for (val p : getTeamPlayers(t))
-                    if (p.equals(player))
-                        cont = true;
+    private void clearTag(String player) {
+        val tag = layered.get(player);
 
-        if (!cont)
+        if (tag != null) {
+            tag.setBase(null, null);
+            unpin(player);
+            markUnresolved(player);
+            fireBaseChanged(player, tag);
             return;
+        }
 
-        val players = group.getPlayers();
-        try {
-            for (val p : players) {
-                val packet = new PacketHandler(team.getName(), Arrays.asList(player), 4);
-                packet.sendToPlayer(p);
-            }
-        } catch (Exception exc) {
-            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
-            exc.printStackTrace();
+        if (removeFromTeam(player) != null) {
+            fireTagChanged(player, null);
+            restoreInherited(Arrays.asList(player));
         }
     }
 
-    private void addToTeam(TeamInfo team, String player) {
-        removeFromTeam(player);
+    /**
+     * Sets the prefix or suffix a layer contributes to a player. The player's
+     * current nametag becomes the base below the layers when the player gets
+     * their first contribution, unless it is the nametag of a logical or
+     * animated team, which is not part of the layered nametag.
+     * 
+     * @param layer  The contributing layer.
+     * @param player The player.
+     * @param slot   The part of the nametag.
+     * @param value  The contributed value, or {@code null} to stop
+     *               contributing it.
+     * @return {@code true} if the layer contributes to the player afterwards.
+     */
+    boolean contribute(NametagLayer layer, String player, TemplateBinding.Slot slot, @Nullable String value) {
+        NametagRecorder.contributed(group, layer, player, slot, value);
+        var tag = layered.get(player);
+
+        if (tag == null) {
+            if (value == null)
+                return false;
+
+            val team = playerTeams.get(player);
+            tag = team == null || getTeamId(team) == -1 ? new LayeredTag(null, null)
+                    : new LayeredTag(team.getPrefix(), team.getSuffix());
+            layered.put(player, tag);
+        }
+
+        val contributed = tag.has(layer);
+
+        if (tag.set(layer, slot, value))
+            markUnresolved(player);
+
+        if (tag.has(layer)) {
+            if (!contributed)
+                layerUses.put(layer, layerUses.getOrDefault(layer, 0) + 1);
+
+            return true;
+        }
+
+        if (contributed)
+            releaseLayer(layer);
+
+        return false;
+    }
+
+    /**
+     * Withdraws everything a layer contributes to a player.
+     * 
+     * @param layer  The layer.
+     * @param player The player.
+     */
+    void withdraw(NametagLayer layer, String player) {
+        NametagRecorder.withdrawn(group, layer, player);
+        val tag = layered.get(player);
+
+        if (tag != null && tag.remove(layer)) {
+            markUnresolved(player);
+            releaseLayer(layer);
+        }
+    }
+
+    /**
+     * Withdraws everything a layer contributes to the players of this group.
+     * 
+     * @param layer The layer.
+     */
+    void withdrawAll(NametagLayer layer) {
+        NametagRecorder.withdrawnAll(group, layer);
+        for (val entry : layered.entrySet())
+            if (entry.getValue().remove(layer))
+                markUnresolved(entry.getKey());
+
+        if (layerUses.remove(layer) != null)
+            layer.forget(this);
+    }
+
+    /**
+     * Counts one player less that a layer contributes to, letting the layer
+     * forget this manager once it contributes to no player of this group.
+     * 
+     * @param layer The layer.
+     */
+    private void releaseLayer(NametagLayer layer) {
+        int uses = layerUses.getOrDefault(layer, 0) - 1;
+
+        if (uses > 0) {
+            layerUses.put(layer, uses);
+            return;
+        }
+
+        layerUses.remove(layer);
+        layer.forget(this);
+    }
+
+    /**
+     * Drops every layer contribution to the given player, their expiring
+     * nametag and their sort weight, without changing their nametag. Called
+     * when the player quits.
+     * 
+     * @param player The player.
+     */
+    public void discardPlayerState(String player) {
+        val tag = layered.remove(player);
+
+        if (tag != null) {
+            val layers = new ObjectArrayList<NametagLayer>(2);
+            tag.collectLayers(layers);
+
+            for (val layer : layers)
+                releaseLayer(layer);
+        }
+
+        sortWeights.remove(player);
+
+        val timer = expiries.remove(player);
+
+        if (timer != null)
+            timer.cancel();
+    }
+
+    /**
+     * Sets a nametag that expires after the given amount of ticks. The
+     * nametag is contributed by the expiring layer of the plugin, above every
+     * other layer, and withdrawn on expiry so the underlying nametag shows
+     * again. Setting another expiring nametag on the player replaces this
+     * one.
+     * 
+     * @param player The specified player.
+     * @param prefix The prefix, or {@code null} to keep the underlying one.
+     * @param suffix The suffix, or {@code null} to keep the underlying one.
+     * @param ticks  The amount of ticks until the nametag expires.
+     */
+    void setExpiring(String player, @Nullable String prefix, @Nullable String suffix, long ticks) {
+        val plugin = NametagPlugin.getInstance();
+        plugin.getExpiringLayer().set(group, player, prefix, suffix);
+
+        val previous = expiries.put(player, plugin.getExpiry().schedule(this, player, ticks));
+
+        if (previous != null)
+            previous.cancel();
+    }
+
+    /**
+     * Withdraws an expiring nametag that is due. Called by the timing wheel.
+     * 
+     * @param timer The timer of the nametag.
+     */
+    void expire(NametagExpiry.Timer timer) {
+        val player = timer.getPlayer();
+
+        if (expiries.get(player) != timer)
+            return;
+
+        expiries.remove(player);
+        NametagPlugin.getInstance().getExpiringLayer().withdraw(group, player);
+    }
+
+    /**
+     * Moves a player out of their logical or animated team, if they are in
+     * one, so their layered nametag can apply again.
+     * 
+     * @param player The player.
+     */
+    private void unpin(String player) {
+        val team = playerTeams.get(player);
+
+        if (team != null && getTeamId(team) == -1) {
+            removeFromTeam(player);
+            fireTagChanged(player, null);
+            restoreInherited(Arrays.asList(player));
+        }
+    }
+
+    private void markUnresolved(String player) {
+        if (unresolved == null) {
+            unresolved = new ObjectOpenHashSet<>();
+            UNRESOLVED.add(this);
+        }
+
+        unresolved.add(player);
+    }
+
+    /**
+     * Resolves the layered nametags that changed since the last call, moving
+     * each player only if their resolved nametag differs from the applied one.
+     * Players in a logical or animated team keep that team: team membership
+     * takes precedence over layers, whose contributions apply once the player
+     * leaves the team. Called once per tick by the plugin.
+     */
+    static void resolveLayers() {
+        if (UNRESOLVED.isEmpty())
+            return;
+
+        val managers = UNRESOLVED.toArray(new NametagManager[0]);
+        UNRESOLVED.clear();
+
+        for (val manager : managers)
+            manager.resolve();
+    }
+
+    private void resolve() {
+        val players = unresolved;
+        unresolved = null;
+
+        if (players == null)
+            return;
+
+        resolving = true;
+
+        try {
+            for (val player : players) {
+                val tag = layered.get(player);
+
+                if (tag == null)
+                    continue;
+
+                if (!tag.hasLayers())
+                    layered.remove(player);
+
+                val team = playerTeams.get(player);
+
+                if (team != null && getTeamId(team) == -1)
+                    continue;
+
+                val prefix = tag.getPrefix();
+                val suffix = tag.getSuffix();
+
+                if (prefix == null && suffix == null) {
+                    if (removeFromTeam(player) != null) {
+                        fireTagChanged(player, null);
+                        restoreInherited(Arrays.asList(player));
+                    }
+
+                    continue;
+                }
+
+                val resolvedPrefix = prefix == null ? "" : prefix;
+                val resolvedSuffix = suffix == null ? "" : suffix;
+                int weight = getSortWeight(player);
+
+                if (team == null || !team.getPrefix().equals(resolvedPrefix)
+                        || !team.getSuffix().equals(resolvedSuffix) || team.getWeight() != weight)
+                    addToTeam(getTeamInfo(resolvedPrefix, resolvedSuffix, weight), player);
+            }
+        } finally {
+            resolving = false;
+        }
+    }
+
+    /**
+     * Retrieves a player's prefix
+     * 
+     * @param player The specified player.
+     * @return The player's prefix.
+     */
+    String getPrefix(String player) {
+        val team = getEffectiveTeam(player);
+        return team != null ? team.getPrefix() : "";
+    }
+
+    /**
+     * Retrieves a player's suffix
+     * 
+     * @param player The specified player.
+     * @return The player's suffix.
+     */
+    String getSuffix(String player) {
+        val team = getEffectiveTeam(player);
+        return team != null ? team.getSuffix() : "";
+    }
+
+    /**
+     * Retrieves the player's entire name with both the prefix and suffix.
+     * 
+     * @param player The specified player.
+     * @return The entire nametag.
+     */
+    String getFormattedName(String player) {
+        return getPrefix(player) + player + getSuffix(player);
+    }
+
+    /**
+     * Sends the current team setup and their players to the given player,
+     * including the teams inherited from parent groups. Only the teams and
+     * memberships the player's client is missing or has outdated are sent, so
+     * this is safe to call again when the player rejoins the group, switches
+     * groups or reconnects.
+     * 
+     * @param player The player to send the packets to.
+     */
+    public void sendTeamsToPlayer(Player player) {
+        val chain = new ArrayList<NametagManager>();
+
+        for (var manager = this; manager != null; manager = manager.parent)
+            chain.add(manager);
+
+        for (int i = chain.size() - 1; i >= 0; i--)
+            chain.get(i).syncTeams(player, this);
+    }
+
+    /**
+     * Sends the given player the teams and memberships of this group that
+     * their client is missing or has outdated, and removes the memberships
+     * that no longer apply.
+     * 
+     * @param player The player to send the packets to.
+     * @param viewed The manager of the group the player is in.
+     */
+    private void syncTeams(Player player, NametagManager viewed) {
+        val ledger = getLedger(player);
+        val expected = new ObjectOpenHashSet<String>();
+
+        try {
+            for (val entry : teams.entrySet()) {
+                val team = entry.getKey();
+                int slot = team.getSlot();
+
+                if (!ledger.hasTeam(slot))
+                    deliverTeam(player, viewed, team, teamPacket(team, 0), 0);
+                else if (!ledger.isCurrent(slot))
+                    deliverTeam(player, viewed, team, teamPacket(team, 2), 2);
+
+                val missing = new ArrayList<String>();
+
+                for (val member : entry.getValue()) {
+                    expected.add(member);
+
+                    if (ledger.getTeam(member) != slot && isVisible(viewed, member))
+                        missing.add(member);
+                }
+
+                if (!missing.isEmpty())
+                    deliverMembers(player, viewed, team, membershipPacket(team, missing, 3), missing, 3);
+            }
+
+            val stale = new ArrayList<String>();
+
+            for (val member : ledger.getMembers().keySet())
+                if (!expected.contains(member))
+                    stale.add(member);
+
+            for (val member : stale) {
+                val team = slots.get(ledger.getTeam(member));
+                val left = Arrays.asList(member);
+                deliverMembers(player, viewed, team, membershipPacket(team, left, 4), left, 4);
+            }
+        } catch (Exception exc) {
+            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam): ");
+            exc.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns whether a nametag of this group is shown to the players of the
+     * given group, that is, no group between the two overrides it.
+     * 
+     * @param viewed The manager of a group inheriting from this group.
+     * @param player The player whose nametag to check.
+     * @return {@code true} if the nametag is not overridden.
+     */
+    private boolean isVisible(NametagManager viewed, String player) {
+        for (var manager = viewed; manager != this; manager = manager.parent)
+            if (manager.playerTeams.containsKey(player))
+                return false;
+
+        return true;
+    }
+
+    /**
+     * Removes the teams declared in this group from the given player, without
+     * changing any nametags. Only the teams the player's client has are
+     * removed.
+     * 
+     * @param player The player to send the packets to.
+     */
+    public void sendRemoveTeamsToPlayer(Player player) {
+        val ledger = ledgers.remove(player.getUniqueId());
+
+        if (ledger == null)
+            return;
+
+        try {
+            val owned = ledger.getTeams();
+
+            for (int slot = owned.nextSetBit(0); slot >= 0; slot = owned.nextSetBit(slot + 1)) {
+                val team = slots.get(slot);
+
+                if (team != null)
+                    teamPacket(team, 1).sendToPlayer(player);
+            }
+        } catch (Exception exc) {
+            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
+            exc.printStackTrace();
+        }
+    }
+
+    /**
+     * Removes the teams declared in this group from the given player, who is
+     * moving to a parent or sibling group. The players whose nametag this group
+     * overrides are put back into their inherited teams by the next call to
+     * {@link #sendTeamsToPlayer(Player)} on the group the player moves to.
+     * 
+     * @param player The player to send the packets to.
+     */
+    public void unwindPlayer(Player player) {
+        sendRemoveTeamsToPlayer(player);
+    }
+
+    /**
+     * Forgets what the client of the given player has received, without
+     * sending any packets. Called when the player quits, so they are sent
+     * everything again when they reconnect.
+     * 
+     * @param player The player that quit.
+     */
+    public void forgetPlayer(Player player) {
+        ledgers.remove(player.getUniqueId());
+        BEHIND.remove(player);
+    }
+
+    /**
+     * Clears out all teams and removes them for all the players. Called when
+     * the plugin is disabled.
+     */
+    public void reset() {
+        for (val team : getTeams())
+            removeTeam(team);
+
+        for (val animation : animations.keySet())
+            NametagAnimator.current.unregister(animation, this);
+
+        animations.clear();
+
+        for (val logicalTeam : logicalTeams.values())
+            logicalTeam.markDeleted();
+
+        logicalTeams.clear();
+        ledgers.clear();
+
+        for (val layer : layerUses.keySet().toArray(new NametagLayer[0]))
+            layer.forget(this);
+
+        layerUses.clear();
+        layered.clear();
+        unresolved = null;
+
+        for (val timer : expiries.values())
+            timer.cancel();
+
+        expiries.clear();
+        teamIds.clear();
+
+        if (namespaceId != -1) {
+            synchronized (NAMESPACES) {
+                NAMESPACES.clear(namespaceId);
+            }
+
+            namespaceId = -1;
+        }
+
+        if (publisher != null) {
+            // Subscribers are completed; a later getPublisher() call starts a
+            // new publisher.
+            removeListener(publishing);
+            publisher.close();
+            publisher = null;
+            publishing = null;
+        }
+
+        if (listeners != null)
+            for (val listener : listeners.toArray(new TagListener[0]))
+                listener.onReset();
+    }
+
+    /**
+     * Declares a new team in the scoreboard.dat of the given main world.
+     * 
+     * @param name   The team name.
+     * @param weight The tab list sort weight encoded in the name.
+     * @param prefix The team's prefix.
+     * @param suffix The team's suffix.
+     * @return The created TeamInfo.
+     */
+    private TeamInfo declareTeam(String name, int weight, String prefix, String suffix) {
+        if (getTeam(name) != null) {
+            val team = getTeam(name);
+            removeTeam(team);
+        }
+
+        val team = new TeamInfo(name);
+
+        team.setPrefix(prefix);
+        team.setSuffix(suffix);
+        team.setWeight(weight);
+
+        register(team);
+
+        return team;
+    }
+
+    /**
+     * Gets the ScoreboardTeam for the given prefix and suffix, and if none
+     * matches, creates a new team with the provided info. This also removes
+     * teams that currently have no players.
+     * 
+     * @param prefix The team's prefix.
+     * @param suffix The team's suffix.
+     * @param weight The team's tab list sort weight.
+     * @return A team with the corresponding prefix/suffix.
+     */
+    private TeamInfo getTeamInfo(String prefix, String suffix, int weight) {
+        update();
+
+        for (val team : teams.keySet())
+            if (team.getWeight() == weight && team.getSuffix().equals(suffix) && team.getPrefix().equals(prefix)
+                    && getTeamId(team) != -1)
+                return team;
+
+        return declareTeam(teamName(weight, LOOKUP_TEAM_KIND, nextId(list)), weight, prefix, suffix);
+    }
+
+    /**
+     * Builds the name of a team: the sort key of its weight, the kind of team,
+     * the namespace of this manager and the id of the team. The namespace is
+     * bounded when it is claimed, so the name always fits in
+     * {@link #MAX_TEAM_NAME_LENGTH} characters.
+     * 
+     * @param weight The team's tab list sort weight.
+     * @param kind   The kind of team.
+     * @param id     The id of the team, unique within its kind.
+     * @return The team name.
+     */
+    private String teamName(int weight, char kind, int id) {
+        return SortKey.encode(weight) + kind + namespace + Integer.toString(id, ID_RADIX);
+    }
+
+    /**
+     * Claims the lowest namespace that no other child group uses.
+     * 
+     * @return The number of the namespace.
+     * @throws IllegalStateException If every namespace is in use.
+     */
+    private static int claimNamespace() {
+        synchronized (NAMESPACES) {
+            int id = NAMESPACES.nextClearBit(0);
+
+            if (id >= MAX_NAMESPACES)
+                throw new IllegalStateException("Too many child nametag groups: " + id);
+
+            NAMESPACES.set(id);
+            return id;
+        }
+    }
+
+    /**
+     * Returns the lowest id that is not taken, and takes it.
+     * 
+     * @param ids The ids that are taken.
+     * @return The id.
+     */
+    private static int nextId(IntList ids) {
+        int at = 0;
+        boolean cont = true;
+
+        while (cont) {
+            cont = false;
+
+            for (int t : ids) {
+                if (t == at) {
+                    at++;
+                    cont = true;
+                }
+            }
+        }
+
+        ids.add(at);
+        return at;
+    }
+
+    /**
+     * Removes any teams that do not have any players in them.
+     */
+    private void update() {
+        for (val team : getTeams()) {
+            int entry = getTeamId(team);
+
+            if (entry != -1) {
+                if (getTeamPlayers(team).length == 0) {
+                    removeTeam(team);
+                    list.rem(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the numerical id of a team declared by the prefix/suffix lookup.
+     * 
+     * @param team The team.
+     * @return The team's id, or -1 if it is an animated or logical team.
+     */
+    private int getTeamId(TeamInfo team) {
+        val name = team.getName();
+        return name.length() > SortKey.LENGTH && name.charAt(SortKey.LENGTH) == LOOKUP_TEAM_KIND ? parseId(team) : -1;
+    }
+
+    /**
+     * Parses the id from the name of a team of this manager.
+     * 
+     * @param team The team.
+     * @return The team's id, or -1 if the name holds none.
+     */
+    private int parseId(TeamInfo team) {
+        val name = team.getName();
+        int start = SortKey.LENGTH + 1 + namespace.length();
+
+        if (name.length() <= start || !name.startsWith(namespace, SortKey.LENGTH + 1))
+            return -1;
+
+        try {
+            return Integer.parseInt(name.substring(start), ID_RADIX);
+        } catch (NumberFormatException exc) {
+            return -1;
+        }
+    }
+
+    /**
+     * Sends packets out to players to add the given team
+     * 
+     * @param team the team to add
+     */
+    private void sendPacketsAddTeam(TeamInfo team) {
+        try {
+            broadcastTeam(this, team, teamPacket(team, 0), 0);
+        } catch (Exception exc) {
+            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
+            exc.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends packets out to players to update the prefix and suffix of the
+     * given team in place.
+     * 
+     * @param team the team to update
+     */
+    private void sendPacketsUpdateTeam(TeamInfo team) {
+        try {
+            broadcastTeam(this, team, teamPacket(team, 2), 2);
+        } catch (Exception exc) {
+            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
+            exc.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends packets out to a player to remove the given team
+     * 
+     * @param team   the team to remove
+     * @param player the player to remove the team from
+     */
+    public void sendPacketsRemoveTeam(TeamInfo team, Player player) {
+        if (!teams.containsKey(team))
+            return;
+
+        try {
+            deliverTeam(player, this, team, teamPacket(team, 1), 1);
+        } catch (Exception exc) {
+            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
+            exc.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends packets out to players to remove the given team
+     * 
+     * @param team the team to remove
+     */
+    private void sendPacketsRemoveTeam(TeamInfo team) {
+        if (!teams.containsKey(team))
+            return;
+
+        try {
+            broadcastTeam(this, team, teamPacket(team, 1), 1);
+        } catch (Exception exc) {
+            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
+            exc.printStackTrace();
+        }
+    }
+
+    public void removeAllTeamsForPlayer(Player player) {
+        sendRemoveTeamsToPlayer(player);
+
+        for (val team : getTeams()) {
+            teams.computeIfPresent(team, (k, v) -> {
+                v.remove(player.getName());
+                return v;
+            });
+        }
+
+        if (playerTeams.remove(player.getName()) != null)
+            fireTagChanged(player.getName(), null);
+    }
+
+    /**
+     * Sends out packets to players to add the given player to the given team
+     * 
+     * @param team   - The team to use
+     * @param player - The player to add
+     */
+    private void sendPacketsAddToTeam(TeamInfo team, String player) {
+        sendPacketsAddToTeam(team, Arrays.asList(player));
+    }
+
+    /**
+     * Sends out packets to players to add the given players to the given team
+     * 
+     * @param team    - The team to use
+     * @param members - The players to add
+     */
+    private void sendPacketsAddToTeam(TeamInfo team, Collection<String> members) {
+        if (!teams.containsKey(team))
+            return;
+
+        try {
+            broadcastMembership(this, team, members, 3);
+        } catch (Exception exc) {
+            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
+            exc.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends out packets to players to remove the given player from the given
+     * team.
+     * 
+     * @param team   - The team to remove from
+     * @param player - The player to remove
+     */
+    private void sendPacketsRemoveFromTeam(TeamInfo team, String player) {
+        if (playerTeams.get(player) != team)
+            return;
+
+        try {
+            broadcastMembership(this, team, Arrays.asList(player), 4);
+        } catch (Exception exc) {
+            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
+            exc.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends a team packet to the players of this group and of every group
+     * inheriting from it.
+     * 
+     * @param owner  The manager that declared the team.
+     * @param team   The team.
+     * @param packet The packet to send.
+     * @param mode   The packet mode, one of 0 (create), 1 (remove) or 2
+     *               (update).
+     */
+    private void broadcastTeam(NametagManager owner, TeamInfo team, PacketHandler packet, int mode) {
+        if (mode != 1 && isDeferred()) {
+            if (mode == 2)
+                owner.markUpdated(team.getSlot());
+
+            STALE.add(this);
+            return;
+        }
+
+        for (val p : group.getPlayers())
+            owner.deliverTeam(p, this, team, packet, mode);
+
+        for (val child : group.getChildren())
+            child.getManager().broadcastTeam(owner, team, packet, mode);
+    }
+
+    /**
+     * Sends a team join or leave packet to the players of this group and of
+     * every group inheriting from it. Child groups that override the nametag
+     * of a member do not receive that member.
+     * 
+     * @param owner   The manager that declared the team.
+     * @param team    The team.
+     * @param members The players joining or leaving the team.
+     * @param mode    The packet mode, either 3 (join) or 4 (leave).
+     */
+    private void broadcastMembership(NametagManager owner, TeamInfo team, Collection<String> members, int mode) {
+        if (isDeferred()) {
+            STALE.add(this);
+            return;
+        }
+
+        if (!group.getPlayers().isEmpty()) {
+            val packet = owner.membershipPacket(team, members, mode);
+
+            for (val p : group.getPlayers())
+                owner.deliverMembers(p, this, team, packet, members, mode);
+        }
+
+        for (val child : group.getChildren()) {
+            val manager = child.getManager();
+            Collection<String> visible = members;
+
+            for (val member : members) {
+                if (manager.playerTeams.containsKey(member)) {
+                    visible = new ArrayList<>(members);
+                    visible.removeIf(manager.playerTeams::containsKey);
+                    break;
+                }
+            }
+
+            if (!visible.isEmpty())
+                manager.broadcastMembership(owner, team, visible, mode);
+        }
+    }
+
+    /**
+     * Sends a team packet of this manager to one player, unless their client
+     * already has the team in the resulting state. Team removals are always
+     * sent; other packets are held back while the player's connection is not
+     * writable.
+     * 
+     * @param player The player to send the packet to.
+     * @param viewed The manager of the group the player is in.
+     * @param team   The team.
+     * @param packet The packet to send.
+     * @param mode   The packet mode, one of 0 (create), 1 (remove) or 2
+     *               (update).
+     */
+    private void deliverTeam(Player player, NametagManager viewed, TeamInfo team, PacketHandler packet, int mode) {
+        int slot = team.getSlot();
+        val ledger = mode == 0 ? getLedger(player) : ledgers.get(player.getUniqueId());
+
+        if (ledger == null || ledger.hasTeam(slot) == (mode == 0))
+            return;
+
+        // Removals are never held back, as the slot may be reused by a team
+        // with another name before the player catches up.
+        if (mode != 1 && (isDeferred() || !PacketHandler.isWritable(player))) {
+            if (mode == 2)
+                ledger.outdated(slot);
+
+            fallBehind(player, viewed);
+            return;
+        }
+
+        send(player, packet);
+
+        if (mode == 0)
+            ledger.created(slot);
+        else if (mode == 1)
+            ledger.removed(slot);
+        else
+            ledger.updated(slot);
+    }
+
+    /**
+     * Sends a team join or leave packet of this manager to one player,
+     * leaving out the members whose client state already matches.
+     * 
+     * @param player  The player to send the packet to.
+     * @param viewed  The manager of the group the player is in.
+     * @param team    The team.
+     * @param packet  The packet listing all the members.
+     * @param members The players joining or leaving the team.
+     * @param mode    The packet mode, either 3 (join) or 4 (leave).
+     */
+    private void deliverMembers(Player player, NametagManager viewed, TeamInfo team, PacketHandler packet,
+            Collection<String> members, int mode) {
+        val ledger = ledgers.get(player.getUniqueId());
+        int slot = team.getSlot();
+
+        if (ledger == null || !ledger.hasTeam(slot))
+            return;
+
+        if (isDeferred()) {
+            fallBehind(player, viewed);
+            return;
+        }
+
+        val joining = mode == 3;
+        Collection<String> needed = members;
+
+        for (val member : members) {
+            if ((ledger.getTeam(member) == slot) == joining) {
+                needed = new ArrayList<>(members);
+                needed.removeIf(m -> (ledger.getTeam(m) == slot) == joining);
+                packet = needed.isEmpty() ? null : membershipPacket(team, needed, mode);
+                break;
+            }
+        }
+
+        if (packet == null)
+            return;
+
+        if (!PacketHandler.isWritable(player)) {
+            fallBehind(player, viewed);
+            return;
+        }
+
+        send(player, packet);
+
+        if (!joining) {
+            ledger.left(slot, needed);
+            return;
+        }
+
+        ledger.joined(slot, needed);
+
+        // A join moves the members off whatever team the client had them in.
+        for (var manager = viewed; manager != null; manager = manager.parent)
+            if (manager != this)
+                manager.forgetMembers(player, needed);
+    }
+
+    /**
+     * Returns whether packets other than team removals are left to the flush
+     * phase instead of being sent as nametags change.
+     * 
+     * @return {@code true} if the flush phase is enabled and the current
+     *         thread is not preparing packets for it.
+     */
+    private static boolean isDeferred() {
+        return pool != null && PREPARING.get() == null;
+    }
+
+    /**
+     * Sends a packet to a player, or adds it to the batch the current thread
+     * is preparing.
+     * 
+     * @param player The player.
+     * @param packet The packet.
+     */
+    private static void send(Player player, PacketHandler packet) {
+        val batch = PREPARING.get();
+
+        if (batch != null) {
+            batch.viewers.add(player);
+            batch.packets.add(packet);
+        } else
+            packet.sendToPlayer(player);
+    }
+
+    /**
+     * Remembers that a player missed packets because their connection was
+     * not writable, or because the packets are left to the flush phase.
+     * Nothing is queued for the player: their ledger still describes what
+     * their client has, so a single sync later sends the difference to the
+     * latest state.
+     * 
+     * @param player The player.
+     * @param viewed The manager of the group the player is in.
+     */
+    private static void fallBehind(Player player, NametagManager viewed) {
+        val batch = PREPARING.get();
+
+        if (batch != null)
+            batch.behind.put(player, viewed);
+        else
+            BEHIND.put(player, viewed);
+    }
+
+    /**
+     * Enables or disables the flush phase, first sending the packets left to
+     * it. When enabled, only team removals are sent as nametags change; once
+     * per tick, {@link #catchUp()} prepares what the client of each affected
+     * player is missing, for every family of groups in parallel, and then
+     * hands the packets to the connections on the main thread.
+     * 
+     * @param parallel Whether to prepare packets in parallel.
+     */
+    static void setParallel(boolean parallel) {
+        if (parallel == (pool != null))
+            return;
+
+        if (parallel) {
+            pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+            return;
+        }
+
+        catchUp();
+        pool.shutdown();
+        pool = null;
+    }
+
+    static boolean isParallel() {
+        return pool != null;
+    }
+
+    /**
+     * Sends every player that fell behind and whose connection is writable
+     * what their client is missing. Called once per tick by the plugin.
+     * 
+     * <br>
+     * <br>
+     * 
+     * With the flush phase enabled, the players are split by the root of
+     * their group. Groups of different families share no state, so each
+     * family's ledger diffs and packets are prepared on the pool, and only
+     * handing the packets to the connections runs on the main thread.
+     */
+    static void catchUp() {
+        if (BEHIND.isEmpty() && STALE.isEmpty())
+            return;
+
+        val families = new Object2ObjectLinkedOpenHashMap<NametagManager, Batch>();
+
+        for (val manager : STALE)
+            families.computeIfAbsent(manager.getRoot(), k -> new Batch()).stale.add(manager);
+
+        STALE.clear();
+
+        for (val player : BEHIND.keySet().toArray(new Player[0])) {
+            val viewed = BEHIND.get(player);
+
+            if (!viewed.group.contains(player)) {
+                BEHIND.remove(player);
+                continue;
+            }
+
+            if (PacketHandler.isWritable(player)) {
+                BEHIND.remove(player);
+                families.computeIfAbsent(viewed.getRoot(), k -> new Batch()).players.put(player, viewed);
+            }
+        }
+
+        val batches = families.values().toArray(new Batch[0]);
+
+        if (pool == null || batches.length < PARALLEL_THRESHOLD) {
+            for (val batch : batches)
+                batch.prepare();
+        } else
+            pool.submit(() -> Arrays.stream(batches).parallel().forEach(Batch::prepare)).join();
+
+        for (val batch : batches)
+            batch.deliver();
+    }
+
+    private NametagManager getRoot() {
+        var root = this;
+
+        while (root.parent != null)
+            root = root.parent;
+
+        return root;
+    }
+
+    /**
+     * Remembers that a team was updated while its packets were left to the
+     * flush phase.
+     * 
+     * @param slot The slot of the team.
+     */
+    private void markUpdated(int slot) {
+        if (updatedSlots == null)
+            updatedSlots = new BitSet();
+
+        updatedSlots.set(slot);
+    }
+
+    /**
+     * Marks the teams updated since the flush phase last ran as outdated in
+     * the ledger of every player, so the next sync sends their prefix and
+     * suffix.
+     */
+    private void applyUpdates() {
+        val updated = updatedSlots;
+
+        if (updated == null)
+            return;
+
+        updatedSlots = null;
+
+        for (val ledger : ledgers.values())
+            for (int slot = updated.nextSetBit(0); slot >= 0; slot = updated.nextSetBit(slot + 1))
+                ledger.outdated(slot);
+    }
+
+    /**
+     * Adds the players of this group and of every group inheriting from it,
+     * with the manager of the group each is in.
+     * 
+     * @param players The players to add to.
+     */
+    private void collectViewers(Map<Player, NametagManager> players) {
+        for (val player : group.getPlayers())
+            players.putIfAbsent(player, this);
+
+        for (val child : group.getChildren())
+            child.getManager().collectViewers(players);
+    }
+
+    private void forgetMembers(Player player, Collection<String> members) {
+        val ledger = ledgers.get(player.getUniqueId());
+
+        if (ledger != null)
+            ledger.forget(members);
+    }
+
+    private ClientLedger getLedger(Player player) {
+        return ledgers.computeIfAbsent(player.getUniqueId(), k -> new ClientLedger());
+    }
+
+    private PacketHandler teamPacket(TeamInfo team, int mode) {
+        return new PacketHandler(team.getName(), team.getPrefix(), team.getSuffix(), new ArrayList<String>(), mode);
+    }
+
+    private PacketHandler membershipPacket(TeamInfo team, Collection<String> members, int mode) {
+        return new PacketHandler(team.getName(), members, mode);
+    }
+
+    /**
+     * Puts players that no longer have a nametag in this group back into the
+     * team they inherit from the parent group.
+     * 
+     * @param players The players whose nametag was removed in this group.
+     */
+    private void restoreInherited(Collection<String> players) {
+        if (parent == null)
+            return;
+
+        try {
+            for (val player : players) {
+                for (var owner = parent; owner != null; owner = owner.parent) {
+                    val team = owner.playerTeams.get(player);
+
+                    if (team != null) {
+                        broadcastMembership(owner, team, Arrays.asList(player), 3);
+                        break;
+                    }
+                }
+            }
+        } catch (Exception exc) {
+            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
+            exc.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the team that determines the given player's nametag in this
+     * group, which is either a team of this group or an inherited team.
+     * 
+     * @param player The specified player.
+     * @return The player's team, or {@code null} if the player has none.
+     */
+    @Nullable
+    private TeamInfo getEffectiveTeam(String player) {
+        val team = playerTeams.get(player);
+        return team != null || parent == null ? team : parent.getEffectiveTeam(player);
+    }
+
+    /**
+     * Returns the effective team of every player with a nametag in this
+     * group. The merged view of a child group is kept until this group or
+     * one of its ancestors changes, so groups sharing an ancestor merge its
+     * teams once.
+     * 
+     * @return A map of each player to their team, not to be modified.
+     */
+    private Map<String, TeamInfo> getEffectiveTeams() {
+        if (parent == null)
+            return playerTeams;
+
+        if (effectiveTeams == null) {
+            val effective = new Object2ObjectOpenHashMap<>(parent.getEffectiveTeams());
+            effective.putAll(playerTeams);
+            effectiveTeams = effective;
+        }
+
+        return effectiveTeams;
+    }
+
+    private void addToTeam(TeamInfo team, String player) {
+        if (playerTeams.get(player) == team)
+            return;
+
+        removeFromTeam(player);
         val list = teams.get(team);
 
         if (list != null) {
             list.add(player);
+            playerTeams.put(player, team);
 
-            val p = Bukkit.getPlayerExact(player);
-
-            if (p != null)
-                sendPacketsAddToTeam(team, p.getName());
-            else {
-                @SuppressWarnings("deprecation")
-                val p2 = Bukkit.getOfflinePlayer(player);
-                sendPacketsAddToTeam(team, p2.getName());
-            }
+            sendPacketsAddToTeam(team, player);
+            fireTagChanged(player, team);
         }
     }
 
+    private void fireTagChanged(String player, @Nullable TeamInfo team) {
+        markDirty();
+
+        if (listeners == null)
+            return;
+
+        for (val listener : listeners.toArray(new TagListener[0]))
+            if (!resolving || listener.followsLayers())
+                listener.onTagChanged(player, team == null ? null : team.getPrefix(),
+                        team == null ? null : team.getSuffix());
+    }
+
+    /**
+     * Tells the listeners not following layers that the base of a layered
+     * nametag changed. The listeners following layers are told once the
+     * nametag is resolved.
+     * 
+     * @param player The player.
+     * @param tag    The layered nametag of the player.
+     */
+    private void fireBaseChanged(String player, LayeredTag tag) {
+        if (listeners == null)
+            return;
+
+        val prefix = tag.getBasePrefix();
+        val suffix = tag.getBaseSuffix();
+        val cleared = prefix == null && suffix == null;
+
+        for (val listener : listeners.toArray(new TagListener[0]))
+            if (!listener.followsLayers())
+                listener.onTagChanged(player, cleared ? null : prefix == null ? "" : prefix,
+                        cleared ? null : suffix == null ? "" : suffix);
+    }
+
     private void register(TeamInfo team) {
-        teams.put(team, new ArrayList<String>());
+        if (freeSlots.isEmpty()) {
+            team.setSlot(slots.size());
+            slots.add(team);
+        } else {
+            team.setSlot(freeSlots.popInt());
+            slots.set(team.getSlot(), team);
+        }
+
+        teams.put(team, new ObjectArrayList<String>(1));
         sendPacketsAddTeam(team);
     }
 
     private void removeTeam(TeamInfo team) {
         sendPacketsRemoveTeam(team);
-        teams.remove(team);
+        val members = teams.remove(team);
+
+        if (members != null) {
+            slots.set(team.getSlot(), null);
+            freeSlots.push(team.getSlot());
+        }
+
+        if (members != null && !members.isEmpty()) {
+            for (val member : members)
+                playerTeams.remove(member);
+
+            markDirty();
+        }
     }
 
     @Nullable
     private TeamInfo removeFromTeam(String player) {
-        for (val team : teams.keySet()) {
-            val list = teams.get(team);
-
-            for (val p : list) {
-                if (p.equals(player)) {
-                    val pl = Bukkit.getPlayerExact(player);
-
-                    if (pl != null)
-                        sendPacketsRemoveFromTeam(team, pl.getName());
-                    else {
-                        @SuppressWarnings("deprecation")
-                        val p2 = Bukkit.getOfflinePlayer(p);
-                        sendPacketsRemoveFromTeam(team, p2.getName());
-                    }
+        val team = playerTeams.get(player);
 
-                    list.remove(p);
+        if (team == null)
+            return null;
 
-                    return team;
-                }
+        sendPacketsRemoveFromTeam(team, player);
+
+        val list = teams.get(team);
+        list.remove(player);
+        playerTeams.remove(player);
+
+        if (list.isEmpty())
+            releaseTeam(team);
+
+        return team;
+    }
+
+    /**
+     * Schedules a new snapshot to be published for this manager.
+     */
+    private void markDirty() {
+        if (!dirty) {
+            dirty = true;
+            effectiveTeams = null;
+            DIRTY.add(this);
+
+            for (val child : group.getChildren())
+                child.getManager().markDirty();
+        }
+    }
+
+    /**
+     * Publishes a new snapshot for every manager whose nametags changed since
+     * its last snapshot. Called once per tick by the plugin.
+     */
+    static void publishSnapshots() {
+        for (val manager : DIRTY) {
+            manager.snapshot = NametagSnapshot.of(manager.snapshot.getVersion() + 1, manager.getEffectiveTeams());
+            manager.dirty = false;
+        }
+
+        DIRTY.clear();
+    }
+
+    /**
+     * Removes a team that no longer has any players, so teams do not pile up
+     * over the lifetime of the group. Logical teams are kept.
+     * 
+     * @param team The team that no longer has any players.
+     */
+    private void releaseTeam(TeamInfo team) {
+        int entry = getTeamId(team);
+
+        if (entry == -1) {
+            releaseAnimation(team);
+            return;
+        }
+
+        removeTeam(team);
+        list.rem(entry);
+    }
+
+    /**
+     * Removes the given team if it is the team of an animation, and stops
+     * receiving frames for that animation.
+     * 
+     * @param team The team that no longer has any players.
+     */
+    private void releaseAnimation(TeamInfo team) {
+        for (val entry : animations.entrySet()) {
+            if (entry.getValue() == team) {
+                val animation = entry.getKey();
+                animations.remove(animation);
+                NametagAnimator.current.unregister(animation, this);
+                removeTeam(team);
+                teamIds.rem(parseId(team));
+                return;
             }
         }
+    }
 
-        return null;
+    /**
+     * <b><i>NOTICE:</i></b> Called by {@link NametagGroup}, creating the map of
+     * the players viewing the group. The map allocates nothing until the
+     * first player is added and stays compact while the group is small.
+     * 
+     * @param <K> The type of the keys.
+     * @param <V> The type of the values.
+     * @return The created map.
+     */
+    public static <K, V> Map<K, V> createPlayerMap() {
+        return new CompactMap<>();
+    }
+
+    /**
+     * <b><i>NOTICE:</i></b> Called by {@link NametagGroup}, estimating the
+     * heap size retained by the group of this manager and by this manager,
+     * not counting child groups or the players and strings they refer to.
+     * 
+     * @param players  The player map of the group, created by
+     *                 {@link #createPlayerMap()}.
+     * @param children The child groups of the group.
+     * @return The estimated size in bytes.
+     */
+    public long estimateGroupFootprint(Map<?, ?> players, Collection<?> children) {
+        return Footprint.shallow(group.getClass()) + ((CompactMap<?, ?>) players).estimateFootprint()
+                + Footprint.shallow(children.getClass()) + Footprint.array(children.size(), Footprint.REFERENCE)
+                + estimateFootprint();
+    }
+
+    /**
+     * Estimates the heap size retained by this manager, including its teams
+     * and the client state it tracks per viewer, but not the strings and
+     * players it refers to.
+     * 
+     * @return The estimated size in bytes.
+     */
+    public long estimateFootprint() {
+        long bytes = Footprint.shallow(NametagManager.class) + teams.estimateFootprint() + playerTeams.estimateFootprint()
+                + animations.estimateFootprint() + logicalTeams.estimateFootprint() + ledgers.estimateFootprint()
+                + layered.estimateFootprint() + layerUses.estimateFootprint() + expiries.estimateFootprint()
+                + sortWeights.estimateFootprint();
+
+        for (val members : teams.values())
+            bytes += Footprint.shallow(TeamInfo.class) + Footprint.shallow(members.getClass())
+                    + Footprint.array(members.size(), Footprint.REFERENCE);
+
+        for (val ledger : ledgers.values())
+            bytes += ledger.estimateFootprint();
+
+        bytes += Footprint.shallow(list.getClass()) + Footprint.array(list.size(), 4);
+        bytes += Footprint.shallow(teamIds.getClass()) + Footprint.array(teamIds.size(), 4);
+        bytes += Footprint.shallow(slots.getClass()) + Footprint.array(slots.size(), Footprint.REFERENCE);
+        bytes += Footprint.shallow(freeSlots.getClass()) + Footprint.array(freeSlots.size(), 4);
+
+        if (listeners != null)
+            bytes += Footprint.shallow(listeners.getClass())
+                    + Footprint.array(listeners.size(), Footprint.REFERENCE);
+
+        if (effectiveTeams != null)
+            bytes += Footprint.hash(effectiveTeams.getClass(), effectiveTeams.size(), Footprint.REFERENCE,
+                    Footprint.REFERENCE);
+
+        return bytes;
     }
 
     @Nullable
@@ -536,4 +2118,51 @@ public final class NametagManager {
         return list != null ? list.toArray(new String[list.size()]) : new String[0];
     }
 
+    /**
+     * The packets prepared for the players of one family of groups, handed
+     * to the connections in the order they were prepared.
+     */
+    private static final class Batch {
+        /** The managers of this family whose changes were left to the flush phase. */
+        private final List<NametagManager> stale = new ObjectArrayList<>();
+        /** The players to catch up, with the manager of the group each is in. */
+        private final Map<Player, NametagManager> players = new Object2ObjectLinkedOpenHashMap<>();
+        private final List<Player> viewers = new ObjectArrayList<>();
+        private final List<PacketHandler> packets = new ObjectArrayList<>();
+        /** The players that fell behind again while the batch was prepared. */
+        private final Map<Player, NametagManager> behind = new Object2ObjectLinkedOpenHashMap<>();
+
+        /**
+         * Prepares what the client of each player is missing, including the
+         * players of the stale groups. Only touches the managers of this
+         * family, so batches of different families can be prepared at the
+         * same time.
+         */
+        void prepare() {
+            PREPARING.set(this);
+
+            try {
+                for (val manager : stale) {
+                    manager.applyUpdates();
+                    manager.collectViewers(players);
+                }
+
+                for (val entry : players.entrySet())
+                    entry.getValue().sendTeamsToPlayer(entry.getKey());
+            } finally {
+                PREPARING.remove();
+            }
+        }
+
+        /**
+         * Hands the prepared packets to the connections. Must be called from
+         * the main thread.
+         */
+        void deliver() {
+            for (int i = 0; i < packets.size(); i++)
+                packets.get(i).sendToPlayer(viewers.get(i));
+
+            BEHIND.putAll(behind);
+        }
+    }
 }
\ No newline at end of file
@@ -1,15 +1,95 @@
 package io.isles.nametagapi;
 
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+
 import org.bukkit.plugin.java.JavaPlugin;
 
+import gg.mineral.api.nametag.NametagGroupListener;
+import gg.mineral.api.nametag.NametagGroupRegistry;
+import lombok.AccessLevel;
 import lombok.Getter;
 
 public final class NametagPlugin extends JavaPlugin {
+    /** The interval in ticks at which the nametag store is flushed. */
+    private static final long STORE_FLUSH_INTERVAL = 20L;
+    /** The interval in ticks at which stale groups are reported. */
+    private static final long STALE_REPORT_INTERVAL = 20L * 60 * 5;
+    /** The time without players after which a group is reported as stale. */
+    private static final Duration STALE_AFTER = Duration.ofMinutes(10);
     @Getter
     private static NametagPlugin instance;
+    /** The timing wheel of expiring nametags. */
+    @Getter(AccessLevel.PACKAGE)
+    private final NametagExpiry expiry = new NametagExpiry();
+    /** The layer expiring nametags are contributed through, above all others. */
+    @Getter(AccessLevel.PACKAGE)
+    private final NametagLayer expiringLayer = new NametagLayer(this, "expiring", Integer.MAX_VALUE);
+    private NametagStore store;
 
     @Override
     public void onEnable() {
         instance = this;
+        NametagAnimator.current.start(this);
+        getServer().getScheduler().runTaskTimer(this, () -> {
+            expiry.tick();
+            NametagManager.resolveLayers();
+            NametagManager.publishSnapshots();
+            NametagManager.catchUp();
+        }, 1L, 1L);
+        getServer().getScheduler().runTaskTimer(this, PacketHandler::flush, 1L, 1L);
+        getServer().getPluginManager().registerEvents(new NametagGroupListener(), this);
+        getServer().getPluginManager().registerEvents(new NametagLayerListener(), this);
+        getServer().getScheduler().runTaskTimer(this, this::reportStaleGroups, STALE_REPORT_INTERVAL,
+                STALE_REPORT_INTERVAL);
+    }
+
+    @Override
+    public void onDisable() {
+        NametagAnimator.current.stop();
+        NametagManager.setParallel(false);
+        PacketHandler.setMerged(false);
+        PacketHandler.sink.drain();
+
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException exc) {
+                getLogger().warning("Failed to close nametag store: " + exc.getMessage());
+            }
+
+            store = null;
+        }
+    }
+
+    private void reportStaleGroups() {
+        int stale = NametagGroupRegistry.getStaleGroups(STALE_AFTER).size();
+
+        if (stale > 0)
+            getLogger().warning(stale + " nametag groups have had no players for over " + STALE_AFTER.toMinutes()
+                    + " minutes but were never deleted.");
+    }
+
+    /**
+     * Returns the nametag store of this server, opening it on first use.
+     * Nametags are only persisted for groups attached to the store.
+     * 
+     * @return The nametag store.
+     * @throws IllegalStateException If the store could not be opened.
+     */
+    public NametagStore getStore() {
+        if (store == null) {
+            try {
+                getDataFolder().mkdirs();
+                store = NametagStore.open(new File(getDataFolder(), "nametags.dat"));
+            } catch (IOException exc) {
+                throw new IllegalStateException("Failed to open nametag store", exc);
+            }
+
+            getServer().getScheduler().runTaskTimer(this, store::flush, STORE_FLUSH_INTERVAL, STORE_FLUSH_INTERVAL);
+        }
+
+        return store;
     }
 }
\ No newline at end of file
@@ -0,0 +1,481 @@
+package io.isles.nametagapi;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.annotation.Nullable;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import gg.mineral.api.nametag.NametagGroup;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import lombok.val;
+
+/**
+ * Records the sequence of group and nametag operations performed on this
+ * server to a compact trace file, which can be replayed headlessly by the
+ * {@link NametagSimulator}. Strings are written once and referenced by index
+ * afterwards, and ticks without operations are collapsed.
+ * 
+ * <br>
+ * <br>
+ * 
+ * Only one recorder can be active at a time.
+ */
+public final class NametagRecorder implements Closeable {
+    static final int MAGIC = 0x4E545452;
+    static final byte OP_STRING = 0, OP_TICK = 1, OP_CREATE = 2, OP_ADD = 3, OP_REMOVE = 4, OP_DELETE = 5,
+            OP_SOFT = 6, OP_HARD = 7, OP_CLEAR = 8, OP_RESTORE = 9, OP_ANIMATION = 10, OP_ANIMATE = 11,
+            OP_TEAM_CREATE = 12, OP_TEAM_UPDATE = 13, OP_TEAM_ADD = 14, OP_TEAM_REMOVE = 15, OP_TEAM_DELETE = 16,
+            OP_TEAM_WEIGHT = 17, OP_TEAM_PLACE = 18, OP_SORT_WEIGHT = 19, OP_LAYER = 20, OP_CONTRIBUTE = 21,
+            OP_WITHDRAW = 22, OP_WITHDRAW_ALL = 23;
+
+    @Nullable
+    private static volatile NametagRecorder active;
+
+    private final DataOutputStream out;
+    private final Object2IntOpenHashMap<String> strings = new Object2IntOpenHashMap<>();
+    private final Map<NametagGroup, Integer> groups = new WeakHashMap<>();
+    private final Map<NametagAnimation, Integer> animations = new WeakHashMap<>();
+    private final Map<NametagLayer, Integer> layers = new WeakHashMap<>();
+    private final BukkitTask task;
+    private int nextGroup, nextAnimation, nextLayer;
+    private int pendingTicks;
+    /** Whether writing failed, after which nothing more is recorded. */
+    private boolean failed;
+
+    private NametagRecorder(Plugin plugin, File file) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        this.out.writeInt(MAGIC);
+        this.strings.defaultReturnValue(-1);
+        this.task = Bukkit.getScheduler().runTaskTimer(plugin, () -> pendingTicks++, 1L, 1L);
+    }
+
+    /**
+     * Starts recording to the given file.
+     * 
+     * @param plugin The plugin to schedule the tick counter with.
+     * @param file   The trace file to write.
+     * @return The started recorder.
+     * @throws IOException If the file could not be created.
+     */
+    public static NametagRecorder start(Plugin plugin, File file) throws IOException {
+        if (active != null)
+            throw new IllegalStateException("A recording is already in progress.");
+
+        val recorder = new NametagRecorder(plugin, file);
+        active = recorder;
+        return recorder;
+    }
+
+    /**
+     * Returns the recorder that is currently active.
+     * 
+     * @return The active recorder, or {@code null} if nothing is recorded.
+     */
+    @Nullable
+    public static NametagRecorder getActive() {
+        return active;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (active == this)
+            active = null;
+
+        task.cancel();
+        out.close();
+    }
+
+    /**
+     * <b><i>NOTICE:</i></b> Called by {@link NametagGroup}, recording the
+     * creation of a group.
+     * 
+     * @param group The created group.
+     */
+    public static void groupCreated(NametagGroup group) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.create(group);
+    }
+
+    /**
+     * <b><i>NOTICE:</i></b> Called by {@link NametagGroup}, recording a player
+     * being added to a group.
+     * 
+     * @param group  The group.
+     * @param player The added player.
+     */
+    public static void playerAdded(NametagGroup group, Player player) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_ADD, group, player.getName());
+    }
+
+    /**
+     * <b><i>NOTICE:</i></b> Called by {@link NametagGroup}, recording a player
+     * being removed from a group.
+     * 
+     * @param group  The group.
+     * @param player The removed player.
+     */
+    public static void playerRemoved(NametagGroup group, Player player) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_REMOVE, group, player.getName());
+    }
+
+    /**
+     * <b><i>NOTICE:</i></b> Called by {@link NametagGroup}, recording the
+     * deletion of a group.
+     * 
+     * @param group The deleted group.
+     */
+    public static void groupDeleted(NametagGroup group) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_DELETE, group);
+    }
+
+    static void tagSet(NametagGroup group, String player, String prefix, String suffix, boolean hard) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(hard ? OP_HARD : OP_SOFT, group, player, prefix == null ? "" : prefix,
+                    suffix == null ? "" : suffix);
+    }
+
+    static void tagCleared(NametagGroup group, String player) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_CLEAR, group, player);
+    }
+
+    static void tagsRestored(NametagGroup group, Map<String, String[]> tags) {
+        val recorder = active;
+
+        if (recorder == null || recorder.failed)
+            return;
+
+        for (val tag : tags.entrySet()) {
+            val prefix = tag.getValue()[0];
+            val suffix = tag.getValue()[1];
+            recorder.string(tag.getKey());
+            recorder.string(prefix == null ? "" : prefix);
+            recorder.string(suffix == null ? "" : suffix);
+        }
+
+        try {
+            recorder.header(OP_RESTORE, group);
+            recorder.writeVarInt(tags.size());
+
+            for (val tag : tags.entrySet()) {
+                val prefix = tag.getValue()[0];
+                val suffix = tag.getValue()[1];
+                recorder.writeVarInt(recorder.strings.getInt(tag.getKey()));
+                recorder.writeVarInt(recorder.strings.getInt(prefix == null ? "" : prefix));
+                recorder.writeVarInt(recorder.strings.getInt(suffix == null ? "" : suffix));
+            }
+        } catch (IOException exc) {
+            recorder.fail(exc);
+        }
+    }
+
+    static void animated(NametagGroup group, String player, NametagAnimation animation) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_ANIMATE, group, recorder.animation(animation), player);
+    }
+
+    static void teamCreated(NametagGroup group, String name, String prefix, String suffix, int weight) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_TEAM_CREATE, group, weight, name, prefix, suffix);
+    }
+
+    static void teamUpdated(NametagGroup group, String name, String prefix, String suffix) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_TEAM_UPDATE, group, name, prefix, suffix);
+    }
+
+    static void teamJoined(NametagGroup group, String name, String player) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_TEAM_ADD, group, name, player);
+    }
+
+    static void teamLeft(NametagGroup group, String name, String player) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_TEAM_REMOVE, group, name, player);
+    }
+
+    static void teamDeleted(NametagGroup group, String name) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_TEAM_DELETE, group, name);
+    }
+
+    static void teamWeighted(NametagGroup group, String name, int weight) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_TEAM_WEIGHT, group, weight, name);
+    }
+
+    static void teamPlaced(NametagGroup group, String name, String other, boolean before) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_TEAM_PLACE, group, before ? 1 : 0, name, other);
+    }
+
+    static void sortWeightSet(NametagGroup group, String player, int weight) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_SORT_WEIGHT, group, weight, player);
+    }
+
+    static void contributed(NametagGroup group, NametagLayer layer, String player, TemplateBinding.Slot slot,
+            @Nullable String value) {
+        val recorder = active;
+
+        if (recorder == null || recorder.failed)
+            return;
+
+        // The value is written after the slot, shifted by one so that zero
+        // stands for a withdrawn slot.
+        int id = recorder.layer(layer);
+        recorder.string(player);
+
+        if (value != null)
+            recorder.string(value);
+
+        try {
+            recorder.header(OP_CONTRIBUTE, group);
+            recorder.writeVarInt(id);
+            recorder.writeVarInt(recorder.strings.getInt(player));
+            recorder.writeVarInt(slot.ordinal());
+            recorder.writeVarInt(value == null ? 0 : recorder.strings.getInt(value) + 1);
+        } catch (IOException exc) {
+            recorder.fail(exc);
+        }
+    }
+
+    static void withdrawn(NametagGroup group, NametagLayer layer, String player) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_WITHDRAW, group, recorder.layer(layer), player);
+    }
+
+    static void withdrawnAll(NametagGroup group, NametagLayer layer) {
+        val recorder = active;
+
+        if (recorder != null)
+            recorder.write(OP_WITHDRAW_ALL, group, recorder.layer(layer));
+    }
+
+    private void create(NametagGroup group) {
+        if (failed)
+            return;
+
+        val parent = group.getParent();
+        int parentId = parent == null ? -1 : groups.getOrDefault(parent, -1);
+        int id = nextGroup++;
+        groups.put(group, id);
+
+        try {
+            tick();
+            out.writeByte(OP_CREATE);
+            writeVarInt(id);
+            writeVarInt(parentId + 1);
+        } catch (IOException exc) {
+            fail(exc);
+        }
+    }
+
+    private void write(byte op, NametagGroup group, String... args) {
+        if (failed)
+            return;
+
+        for (val arg : args)
+            string(arg);
+
+        try {
+            header(op, group);
+
+            for (val arg : args)
+                writeVarInt(strings.getInt(arg));
+        } catch (IOException exc) {
+            fail(exc);
+        }
+    }
+
+    private void write(byte op, NametagGroup group, int value, String... args) {
+        if (failed)
+            return;
+
+        for (val arg : args)
+            string(arg);
+
+        try {
+            header(op, group);
+            writeVarInt(value);
+
+            for (val arg : args)
+                writeVarInt(strings.getInt(arg));
+        } catch (IOException exc) {
+            fail(exc);
+        }
+    }
+
+    /**
+     * Returns the id of the given animation in the trace, declaring the
+     * animation and its frames on first use.
+     */
+    private int animation(NametagAnimation animation) {
+        if (failed)
+            return -1;
+
+        val known = animations.get(animation);
+
+        if (known != null)
+            return known;
+
+        val frames = animation.getFrames();
+
+        for (val frame : frames) {
+            string(frame.getPrefix());
+            string(frame.getSuffix());
+        }
+
+        int id = nextAnimation++;
+        animations.put(animation, id);
+
+        try {
+            tick();
+            out.writeByte(OP_ANIMATION);
+            writeVarInt(id);
+            writeVarInt(animation.getInterval());
+            writeVarInt(frames.size());
+
+            for (val frame : frames) {
+                writeVarInt(strings.getInt(frame.getPrefix()));
+                writeVarInt(strings.getInt(frame.getSuffix()));
+            }
+        } catch (IOException exc) {
+            fail(exc);
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns the id of the given layer in the trace, declaring the layer on
+     * first use.
+     */
+    private int layer(NametagLayer layer) {
+        if (failed)
+            return -1;
+
+        val known = layers.get(layer);
+
+        if (known != null)
+            return known;
+
+        int id = nextLayer++;
+        layers.put(layer, id);
+
+        try {
+            tick();
+            out.writeByte(OP_LAYER);
+            writeVarInt(id);
+            out.writeUTF(layer.getName());
+            out.writeInt(layer.getPriority());
+        } catch (IOException exc) {
+            fail(exc);
+        }
+
+        return id;
+    }
+
+    private void header(byte op, NametagGroup group) throws IOException {
+        var id = groups.get(group);
+
+        // Groups created before the recording started are declared lazily.
+        if (id == null) {
+            create(group);
+            id = groups.get(group);
+        }
+
+        tick();
+        out.writeByte(op);
+        writeVarInt(id);
+    }
+
+    private void tick() throws IOException {
+        if (pendingTicks > 0) {
+            out.writeByte(OP_TICK);
+            writeVarInt(pendingTicks);
+            pendingTicks = 0;
+        }
+    }
+
+    private void string(String value) {
+        if (failed || strings.containsKey(value))
+            return;
+
+        try {
+            strings.put(value, strings.size());
+            out.writeByte(OP_STRING);
+            out.writeUTF(value);
+        } catch (IOException exc) {
+            fail(exc);
+        }
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.writeByte(value);
+    }
+
+    private void fail(IOException exc) {
+        if (failed)
+            return;
+
+        failed = true;
+        NametagPlugin.getInstance().getLogger().warning("Failed to write nametag trace, stopping: " + exc.getMessage());
+
+        try {
+            close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package io.isles.nametagapi;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.entity.Player;
+
+import gg.mineral.api.nametag.NametagGroup;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import lombok.Value;
+import lombok.val;
+
+/**
+ * Replays a trace written by the {@link NametagRecorder} without a running
+ * server. Every recorded player is replaced by a number of fake players, so a
+ * production trace can be replayed at a larger scale, and the packets that
+ * would have been sent are counted instead of delivered.
+ * 
+ * <br>
+ * <br>
+ * 
+ * Usage: {@code NametagSimulator <trace> [scale]}
+ */
+public final class NametagSimulator {
+    private final int scale;
+    private final List<String> strings = new ObjectArrayList<>();
+    private final Int2ObjectOpenHashMap<NametagGroup> groups = new Int2ObjectOpenHashMap<>();
+    private final Int2ObjectOpenHashMap<NametagAnimation> animations = new Int2ObjectOpenHashMap<>();
+    private final Int2ObjectOpenHashMap<NametagLayer> layers = new Int2ObjectOpenHashMap<>();
+    private final NametagAnimator animator = new NametagAnimator();
+    private final Map<String, Player[]> players = new Object2ObjectOpenHashMap<>();
+    private final Object2IntOpenHashMap<Player> packets = new Object2IntOpenHashMap<>();
+    private final CpuClock clock = new CpuClock();
+    private long ticks, totalPackets, maxPacketsPerViewer, totalCpu, maxCpu, viewerTicks;
+    private int peakTeams;
+
+    private NametagSimulator(int scale) {
+        if (scale < 1)
+            throw new IllegalArgumentException("Scale must be at least 1");
+
+        this.scale = scale;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: NametagSimulator <trace> [scale]");
+            return;
+        }
+
+        System.out.println(replay(new File(args[0]), args.length > 1 ? Integer.parseInt(args[1]) : 1));
+    }
+
+    /**
+     * Replays the given trace.
+     * 
+     * @param trace The trace file written by a {@link NametagRecorder}.
+     * @param scale The amount of fake players to use per recorded player.
+     * @return The load measured during the replay.
+     * @throws IOException If the trace could not be read.
+     */
+    public static Report replay(File trace, int scale) throws IOException {
+        val simulator = new NametagSimulator(scale);
+        val previous = PacketHandler.sink;
+        val previousAnimator = NametagAnimator.current;
+        PacketHandler.sink = (viewer, packet) -> simulator.packets.addTo(viewer, 1);
+        NametagAnimator.current = simulator.animator;
+
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(trace)))) {
+            if (in.readInt() != NametagRecorder.MAGIC)
+                throw new IOException("Not a nametag trace: " + trace);
+
+            simulator.run(in);
+        } finally {
+            for (val group : simulator.groups.values())
+                if (!group.isDeleted() && group.getParent() == null)
+                    group.delete();
+
+            PacketHandler.flush();
+            PacketHandler.sink = previous;
+            NametagAnimator.current = previousAnimator;
+        }
+
+        return simulator.report();
+    }
+
+    private void run(DataInputStream in) throws IOException {
+        clock.start();
+
+        while (true) {
+            byte op;
+
+            try {
+                op = in.readByte();
+            } catch (EOFException exc) {
+                break;
+            }
+
+            switch (op) {
+                case NametagRecorder.OP_STRING -> strings.add(in.readUTF());
+                case NametagRecorder.OP_TICK -> {
+                    // Ticks without operations still advance animations and
+                    // flush what the previous tick left behind.
+                    for (int n = readVarInt(in); n > 0; n--)
+                        endTick();
+                }
+                case NametagRecorder.OP_CREATE -> {
+                    int id = readVarInt(in);
+                    int parent = readVarInt(in) - 1;
+                    groups.put(id, new NametagGroup(parent == -1 ? null : groups.get(parent)));
+                }
+                case NametagRecorder.OP_ADD -> {
+                    val group = groups.get(readVarInt(in));
+                    group.add(players(readString(in)));
+                }
+                case NametagRecorder.OP_REMOVE -> {
+                    val group = groups.get(readVarInt(in));
+
+                    for (val player : players(readString(in)))
+                        group.remove(player);
+                }
+                case NametagRecorder.OP_DELETE -> {
+                    val group = groups.get(readVarInt(in));
+
+                    if (!group.isDeleted())
+                        group.delete();
+                }
+                case NametagRecorder.OP_SOFT, NametagRecorder.OP_HARD -> {
+                    val manager = groups.get(readVarInt(in)).getManager();
+                    val names = names(readString(in));
+                    val prefix = readString(in);
+                    val suffix = readString(in);
+
+                    for (val name : names) {
+                        if (op == NametagRecorder.OP_HARD)
+                            manager.overlap(name, prefix, suffix);
+                        else
+                            manager.update(name, prefix, suffix);
+                    }
+                }
+                case NametagRecorder.OP_CLEAR -> {
+                    val manager = groups.get(readVarInt(in)).getManager();
+
+                    for (val name : names(readString(in)))
+                        manager.clear(name);
+                }
+                case NametagRecorder.OP_RESTORE -> {
+                    val manager = groups.get(readVarInt(in)).getManager();
+                    val tags = new Object2ObjectOpenHashMap<String, String[]>();
+
+                    for (int i = readVarInt(in); i > 0; i--) {
+                        val names = names(readString(in));
+                        val tag = new String[] { readString(in), readString(in) };
+
+                        for (val name : names)
+                            tags.put(name, tag);
+                    }
+
+                    manager.restore(tags);
+                }
+                case NametagRecorder.OP_ANIMATION -> {
+                    int id = readVarInt(in);
+                    int interval = readVarInt(in);
+                    val frames = new NametagAnimation.Frame[readVarInt(in)];
+
+                    for (int i = 0; i < frames.length; i++)
+                        frames[i] = new NametagAnimation.Frame(readString(in), readString(in));
+
+                    animations.put(id, new NametagAnimation(interval, frames));
+                }
+                case NametagRecorder.OP_ANIMATE -> {
+                    val manager = groups.get(readVarInt(in)).getManager();
+                    val animation = animations.get(readVarInt(in));
+
+                    for (val name : names(readString(in)))
+                        manager.animate(name, animation);
+                }
+                case NametagRecorder.OP_TEAM_CREATE -> {
+                    val manager = groups.get(readVarInt(in)).getManager();
+                    int weight = readVarInt(in);
+                    manager.createLogicalTeam(readString(in), readString(in), readString(in), weight);
+                }
+                case NametagRecorder.OP_TEAM_UPDATE -> {
+                    val manager = groups.get(readVarInt(in)).getManager();
+                    manager.getLogicalTeam(readString(in)).setNametag(readString(in), readString(in));
+                }
+                case NametagRecorder.OP_TEAM_ADD, NametagRecorder.OP_TEAM_REMOVE -> {
+                    val manager = groups.get(readVarInt(in)).getManager();
+                    val team = manager.getLogicalTeam(readString(in));
+
+                    for (val name : names(readString(in))) {
+                        if (op == NametagRecorder.OP_TEAM_ADD)
+                            team.add(name);
+                        else
+                            team.remove(name);
+                    }
+                }
+                case NametagRecorder.OP_TEAM_DELETE -> {
+                    val manager = groups.get(readVarInt(in)).getManager();
+                    manager.getLogicalTeam(readString(in)).delete();
+                }
+                case NametagRecorder.OP_TEAM_WEIGHT -> {
+                    val manager = groups.get(readVarInt(in)).getManager();
+                    int weight = readVarInt(in);
+                    manager.getLogicalTeam(readString(in)).setSortWeight(weight);
+                }
+                case NametagRecorder.OP_TEAM_PLACE -> {
+                    val manager = groups.get(readVarInt(in)).getManager();
+                    boolean before = readVarInt(in) != 0;
+                    val team = manager.getLogicalTeam(readString(in));
+                    val other = manager.getLogicalTeam(readString(in));
+
+                    if (before)
+                        team.placeBefore(other);
+                    else
+                        team.placeAfter(other);
+                }
+                case NametagRecorder.OP_SORT_WEIGHT -> {
+                    val manager = groups.get(readVarInt(in)).getManager();
+                    int weight = readVarInt(in);
+
+                    for (val name : names(readString(in)))
+                        manager.setSortWeight(name, weight);
+                }
+                case NametagRecorder.OP_LAYER -> {
+                    int id = readVarInt(in);
+                    layers.put(id, new NametagLayer(null, in.readUTF(), in.readInt()));
+                }
+                case NametagRecorder.OP_CONTRIBUTE -> {
+                    val group = groups.get(readVarInt(in));
+                    val layer = layers.get(readVarInt(in));
+                    val names = names(readString(in));
+                    val slot = TemplateBinding.Slot.values()[readVarInt(in)];
+                    int value = readVarInt(in);
+
+                    for (val name : names) {
+                        if (slot == TemplateBinding.Slot.PREFIX)
+                            layer.setPrefix(group, name, value == 0 ? null : strings.get(value - 1));
+                        else
+                            layer.setSuffix(group, name, value == 0 ? null : strings.get(value - 1));
+                    }
+                }
+                case NametagRecorder.OP_WITHDRAW -> {
+                    val group = groups.get(readVarInt(in));
+                    val layer = layers.get(readVarInt(in));
+
+                    for (val name : names(readString(in)))
+                        layer.withdraw(group, name);
+                }
+                case NametagRecorder.OP_WITHDRAW_ALL -> {
+                    val manager = groups.get(readVarInt(in)).getManager();
+                    manager.withdrawAll(layers.get(readVarInt(in)));
+                }
+                default -> throw new IOException("Corrupt nametag trace, unknown operation " + op);
+            }
+
+            for (val group : groups.values())
+                if (!group.isDeleted())
+                    peakTeams = Math.max(peakTeams, group.getManager().getTeamCount());
+        }
+
+        endTick();
+    }
+
+    private void endTick() {
+        animator.run();
+        NametagManager.resolveLayers();
+        NametagManager.publishSnapshots();
+        NametagManager.catchUp();
+        PacketHandler.flush();
+        long cpu = clock.lap();
+        ticks++;
+        totalCpu += cpu;
+        maxCpu = Math.max(maxCpu, cpu);
+
+        for (val count : packets.values()) {
+            totalPackets += count;
+            maxPacketsPerViewer = Math.max(maxPacketsPerViewer, count);
+        }
+
+        viewerTicks += packets.size();
+        packets.clear();
+    }
+
+    private String[] names(String name) {
+        val players = players(name);
+        val names = new String[players.length];
+
+        for (int i = 0; i < players.length; i++)
+            names[i] = players[i].getName();
+
+        return names;
+    }
+
+    private Player[] players(String name) {
+        return players.computeIfAbsent(name, k -> {
+            val fakes = new Player[scale];
+
+            for (int i = 0; i < scale; i++)
+                fakes[i] = fakePlayer(i == 0 ? k : scaledName(k, i));
+
+            return fakes;
+        });
+    }
+
+    private static String scaledName(String name, int index) {
+        val suffix = "~" + Integer.toString(index, 36);
+        return name.substring(0, Math.min(name.length(), 16 - suffix.length())) + suffix;
+    }
+
+    private static Player fakePlayer(String name) {
+        val id = UUID.nameUUIDFromBytes(("NametagSimulator:" + name).getBytes());
+        return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[] { Player.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getName" -> name;
+                    case "getUniqueId" -> id;
+                    case "isOnline" -> true;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "FakePlayer{" + name + "}";
+                    default -> null;
+                });
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        return strings.get(readVarInt(in));
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0, shift = 0;
+        byte b;
+
+        do {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    private Report report() {
+        return new Report(ticks, scale, totalPackets,
+                viewerTicks == 0 ? 0 : (double) totalPackets / viewerTicks, maxPacketsPerViewer, peakTeams,
+                ticks == 0 ? 0 : totalCpu / ticks, maxCpu);
+    }
+
+    /** Measures the CPU time of the replaying thread between laps. */
+    private static final class CpuClock {
+        private final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        private long last;
+
+        void start() {
+            last = bean.getCurrentThreadCpuTime();
+        }
+
+        long lap() {
+            long now = bean.getCurrentThreadCpuTime();
+            long elapsed = now - last;
+            last = now;
+            return elapsed;
+        }
+    }
+
+    /** The load measured while replaying a trace. */
+    @Value
+    public static class Report {
+        long ticks;
+        int scale;
+        long packets;
+        /** The average amount of packets per viewer, over ticks with packets. */
+        double packetsPerViewerTick;
+        long maxPacketsPerViewerTick;
+        int peakTeams;
+        long averageCpuNanosPerTick;
+        long maxCpuNanosPerTick;
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "ticks=%d scale=%d packets=%d packets/viewer/tick=%.2f (max %d) peakTeams=%d cpu/tick=%.3fms (max %.3fms)",
+                    ticks, scale, packets, packetsPerViewerTick, maxPacketsPerViewerTick, peakTeams,
+                    averageCpuNanosPerTick / 1e6, maxCpuNanosPerTick / 1e6);
+        }
+    }
+}
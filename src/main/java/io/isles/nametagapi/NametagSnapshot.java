@@ -0,0 +1,106 @@
+package io.isles.nametagapi;
+
+import java.util.Map;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+/**
+ * An immutable view of the nametags of a group at one point in time. A new
+ * snapshot is published after every tick in which the group's nametags
+ * changed, so it can be read from any thread without locking.
+ * 
+ * @see NametagManager#getSnapshot()
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class NametagSnapshot {
+    static final NametagSnapshot EMPTY = new NametagSnapshot(0, new Object2ObjectOpenHashMap<>());
+
+    /** Increases by one every time a new snapshot is published. */
+    @Getter
+    private final long version;
+    /** The nametag of every managed player, keyed by exact name. */
+    private final Map<String, Entry> tags;
+
+    /**
+     * Creates a snapshot of the given team assignments.
+     * 
+     * @param version     The version of the snapshot.
+     * @param playerTeams The team of every managed player.
+     * @return The created snapshot.
+     */
+    static NametagSnapshot of(long version, Map<String, TeamInfo> playerTeams) {
+        val tags = new Object2ObjectOpenHashMap<String, Entry>(playerTeams.size());
+
+        for (val entry : playerTeams.entrySet()) {
+            val team = entry.getValue();
+            tags.put(entry.getKey(), new Entry(team.getPrefix(), team.getSuffix()));
+        }
+
+        return new NametagSnapshot(version, tags);
+    }
+
+    /**
+     * Returns the prefix of the given player.
+     * 
+     * @param player The player to check.
+     * @return The player's prefix, or an empty string if there is none.
+     */
+    public String getPrefix(String player) {
+        val entry = get(player);
+        return entry != null ? entry.prefix : "";
+    }
+
+    /**
+     * Returns the suffix of the given player.
+     * 
+     * @param player The player to check.
+     * @return The player's suffix, or an empty string if there is none.
+     */
+    public String getSuffix(String player) {
+        val entry = get(player);
+        return entry != null ? entry.suffix : "";
+    }
+
+    /**
+     * Returns the player's entire name with both the prefix and suffix.
+     * 
+     * @param player The player to check.
+     * @return The entire nametag.
+     */
+    public String getNametag(String player) {
+        val entry = get(player);
+        return entry != null ? entry.prefix + player + entry.suffix : player;
+    }
+
+    /**
+     * Returns whether the player has a custom nametag.
+     * 
+     * @param player The player to check.
+     * @return {@code true} if there is a custom nametag set.
+     */
+    public boolean isManaged(String player) {
+        return tags.containsKey(player);
+    }
+
+    /**
+     * Returns the amount of players with a custom nametag.
+     * 
+     * @return The amount of managed players.
+     */
+    public int size() {
+        return tags.size();
+    }
+
+    private Entry get(String player) {
+        return tags.get(player);
+    }
+
+    @RequiredArgsConstructor
+    private static final class Entry {
+        private final String prefix, suffix;
+    }
+}
@@ -0,0 +1,420 @@
+package io.isles.nametagapi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import gg.mineral.api.nametag.NametagGroup;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import lombok.val;
+
+/**
+ * Optional persistence of nametag assignments. Every change of an attached
+ * group is appended to a compact binary log, which is compacted once it grows
+ * well beyond the live state. Compaction writes a snapshot of the live state
+ * to a new file on the store's own thread, and the store swaps to that file
+ * once it is complete. On startup the log is replayed into memory, and
+ * attaching a group restores its nametags in bulk through
+ * {@link NametagManager#restore(Map)} instead of per-player updates.
+ * 
+ * <br>
+ * <br>
+ * 
+ * Writes are buffered and flushed by {@link #flush()}, which the plugin calls
+ * periodically and on shutdown.
+ */
+public final class NametagStore implements Closeable {
+    private static final int MAGIC = 0x4E544731;
+    private static final byte OP_SET = 1, OP_CLEAR = 2, OP_DISCARD = 3;
+    /** Amount of stale records tolerated before the log is compacted. */
+    private static final int COMPACT_SLACK = 1024;
+
+    private final File file;
+    private final Executor executor;
+    private final Map<String, Map<String, String[]>> state = new Object2ObjectOpenHashMap<>();
+    private final Map<String, Journal> journals = new Object2ObjectOpenHashMap<>();
+    private DataOutputStream log;
+    private int records, live;
+    /** The compaction writing the new file, or {@code null} if none is running. */
+    @Nullable
+    private FutureTask<File> compaction;
+    /** The records appended since the snapshot of the running compaction. */
+    @Nullable
+    private ByteArrayOutputStream appended;
+
+    private NametagStore(File file, Executor executor) {
+        this.file = file;
+        this.executor = executor;
+    }
+
+    /**
+     * Opens the store backed by the given file, creating it if needed.
+     * 
+     * @param file The log file.
+     * @return The opened store.
+     * @throws IOException If the file could not be read or written.
+     */
+    public static NametagStore open(File file) throws IOException {
+        // The compaction thread exits once idle, so the store needs no
+        // shutdown of its own.
+        return open(file, new ThreadPoolExecutor(0, 1, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    val thread = new Thread(runnable, "Nametag Store");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+    }
+
+    /**
+     * Opens the store backed by the given file, compacting it on the given
+     * executor.
+     * 
+     * @param file     The log file.
+     * @param executor The executor to write compacted logs on.
+     * @return The opened store.
+     * @throws IOException If the file could not be read or written.
+     */
+    static NametagStore open(File file, Executor executor) throws IOException {
+        val store = new NametagStore(file, executor);
+        store.read();
+        store.compact();
+        return store;
+    }
+
+    /**
+     * Restores the nametags saved under the given key into the group, then
+     * records every later change of the group under that key.
+     * 
+     * @param group The group to attach.
+     * @param key   The key the group is saved under.
+     */
+    public void attach(NametagGroup group, String key) {
+        if (journals.containsKey(key))
+            throw new IllegalStateException("A group is already attached with key " + key);
+
+        val manager = group.getManager();
+        val saved = state.get(key);
+
+        if (saved != null && !saved.isEmpty())
+            manager.restore(saved);
+
+        val journal = new Journal(key, manager);
+        journals.put(key, journal);
+        manager.addListener(journal);
+    }
+
+    /**
+     * Stops recording the changes of the group attached under the given key.
+     * The saved nametags are kept for the next time the key is attached.
+     * 
+     * @param key The key the group is saved under.
+     */
+    public void detach(String key) {
+        val journal = journals.remove(key);
+
+        if (journal != null)
+            journal.manager.removeListener(journal);
+    }
+
+    /**
+     * Detaches the group saved under the given key and deletes its saved
+     * nametags.
+     * 
+     * @param key The key the group is saved under.
+     */
+    public void discard(String key) {
+        detach(key);
+        val saved = state.remove(key);
+
+        if (saved != null) {
+            live -= saved.size();
+            append(OP_DISCARD, key, "", null, null);
+        }
+    }
+
+    /**
+     * Flushes buffered records to disk, swapping to the compacted log if a
+     * compaction has completed.
+     */
+    public void flush() {
+        try {
+            log.flush();
+        } catch (IOException exc) {
+            warning("Failed to flush nametag store: " + exc.getMessage());
+        }
+
+        swapIfCompacted();
+    }
+
+    /**
+     * Rewrites the log so that it only contains the live state, waiting for
+     * the rewrite to complete.
+     * 
+     * @throws IOException If the log could not be rewritten.
+     */
+    public void compact() throws IOException {
+        startCompaction();
+        finishCompaction();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (val key : journals.keySet().toArray(new String[0]))
+            detach(key);
+
+        try {
+            if (compaction != null)
+                finishCompaction();
+        } finally {
+            log.close();
+        }
+    }
+
+    /**
+     * Records a change of the nametags saved under the given key.
+     * 
+     * @param key    The key the group is saved under.
+     * @param player The player whose nametag changed.
+     * @param prefix The new prefix, or {@code null} if the nametag was cleared.
+     * @param suffix The new suffix, or {@code null} if the nametag was cleared.
+     */
+    void record(String key, String player, @Nullable String prefix, @Nullable String suffix) {
+        apply(key, player, prefix, suffix);
+        append(prefix == null ? OP_CLEAR : OP_SET, key, player, prefix, suffix);
+    }
+
+    /**
+     * Returns the nametags saved under the given key.
+     * 
+     * @param key The key the group is saved under.
+     * @return The saved prefix and suffix per player, or {@code null} if
+     *         nothing is saved under the key.
+     */
+    @Nullable
+    Map<String, String[]> getSaved(String key) {
+        return state.get(key);
+    }
+
+    private void read() throws IOException {
+        if (!file.exists())
+            return;
+
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a nametag store: " + file);
+
+            while (true) {
+                val op = in.readByte();
+
+                if (op != OP_SET && op != OP_CLEAR && op != OP_DISCARD) {
+                    // Like a partially written trailing record, the corrupt
+                    // record and everything after it are dropped by the
+                    // following compaction.
+                    warning("Corrupt record in nametag store " + file + ", truncating the log at it.");
+                    return;
+                }
+
+                val key = in.readUTF();
+                val player = in.readUTF();
+
+                if (op == OP_SET)
+                    apply(key, player, in.readUTF(), in.readUTF());
+                else if (op == OP_CLEAR)
+                    apply(key, player, null, null);
+                else {
+                    val saved = state.remove(key);
+
+                    if (saved != null)
+                        live -= saved.size();
+                }
+            }
+        } catch (EOFException exc) {
+            // A partially written trailing record is dropped by the following
+            // compaction.
+        }
+    }
+
+    private void apply(String key, String player, @Nullable String prefix, @Nullable String suffix) {
+        if (prefix == null) {
+            val saved = state.get(key);
+
+            if (saved != null && saved.remove(player) != null)
+                live--;
+
+            return;
+        }
+
+        if (state.computeIfAbsent(key, k -> new Object2ObjectOpenHashMap<>()).put(player,
+                new String[] { prefix, suffix }) == null)
+            live++;
+    }
+
+    private void append(byte op, String key, String player, @Nullable String prefix, @Nullable String suffix) {
+        try {
+            write(log, op, key, player, prefix, suffix);
+
+            // Records appended while a compaction runs are also kept for the
+            // new log, which only holds the state of its snapshot.
+            if (appended != null)
+                write(new DataOutputStream(appended), op, key, player, prefix, suffix);
+        } catch (IOException exc) {
+            warning("Failed to write nametag store: " + exc.getMessage());
+        }
+
+        swapIfCompacted();
+
+        if (++records > live * 2 + COMPACT_SLACK)
+            startCompaction();
+    }
+
+    /**
+     * Starts writing a snapshot of the live state to a new log on the
+     * executor, unless a compaction is already running.
+     */
+    private void startCompaction() {
+        if (compaction != null)
+            return;
+
+        val snapshot = new Object2ObjectOpenHashMap<String, Map<String, String[]>>(state.size());
+
+        for (val group : state.entrySet())
+            snapshot.put(group.getKey(), new Object2ObjectOpenHashMap<>(group.getValue()));
+
+        records = live;
+        appended = new ByteArrayOutputStream();
+        compaction = new FutureTask<>(() -> writeSnapshot(snapshot));
+        executor.execute(compaction);
+    }
+
+    private void swapIfCompacted() {
+        if (compaction == null || !compaction.isDone())
+            return;
+
+        try {
+            finishCompaction();
+        } catch (IOException exc) {
+            warning("Failed to compact nametag store: " + exc.getMessage());
+        }
+    }
+
+    /**
+     * Waits for the running compaction, then appends the records written
+     * since its snapshot to the new log and swaps to it. If the compaction
+     * failed, the store keeps appending to the current log.
+     * 
+     * @throws IOException If the new log could not be written or swapped to.
+     */
+    private void finishCompaction() throws IOException {
+        val task = compaction;
+        val since = appended;
+        compaction = null;
+        appended = null;
+        File temp;
+
+        try {
+            temp = task.get();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compacting nametag store");
+        } catch (ExecutionException exc) {
+            if (exc.getCause() instanceof IOException cause)
+                throw cause;
+
+            throw new IOException(exc.getCause());
+        }
+
+        try (var out = new FileOutputStream(temp, true)) {
+            since.writeTo(out);
+        }
+
+        if (log != null)
+            log.close();
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
+    }
+
+    /**
+     * Writes the given state to a new log next to the store's file. Called on
+     * the executor.
+     * 
+     * @param snapshot The saved prefix and suffix per player per key.
+     * @return The new log.
+     * @throws IOException If the new log could not be written.
+     */
+    private File writeSnapshot(Map<String, Map<String, String[]>> snapshot) throws IOException {
+        val temp = new File(file.getPath() + ".tmp");
+
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+
+            for (val group : snapshot.entrySet())
+                for (val tag : group.getValue().entrySet())
+                    write(out, OP_SET, group.getKey(), tag.getKey(), tag.getValue()[0], tag.getValue()[1]);
+        }
+
+        return temp;
+    }
+
+    private static void warning(String message) {
+        val plugin = NametagPlugin.getInstance();
+
+        // Without a running plugin, such as in tests, there is no one to warn.
+        if (plugin != null)
+            plugin.getLogger().warning(message);
+    }
+
+    private static void write(DataOutputStream out, byte op, String key, String player, @Nullable String prefix,
+            @Nullable String suffix) throws IOException {
+        out.writeByte(op);
+        out.writeUTF(key);
+        out.writeUTF(player);
+
+        if (op == OP_SET) {
+            out.writeUTF(prefix);
+            out.writeUTF(suffix);
+        }
+    }
+
+    /**
+     * Records the changes of one attached group.
+     */
+    private final class Journal implements TagListener {
+        private final String key;
+        private final NametagManager manager;
+
+        Journal(String key, NametagManager manager) {
+            this.key = key;
+            this.manager = manager;
+        }
+
+        @Override
+        public void onTagChanged(String player, @Nullable String prefix, @Nullable String suffix) {
+            record(key, player, prefix, suffix);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package io.isles.nametagapi;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import gg.mineral.api.nametag.NametagGroup;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import lombok.Getter;
+import lombok.val;
+
+/**
+ * Shares the nametags of attached groups with other servers through a
+ * {@link NametagTransport}. Local changes are published as versioned
+ * {@link NametagDelta}s, and received deltas are queued and applied once per
+ * tick on the main thread through the bulk path of the
+ * {@link NametagManager}, discarding deltas older than the applied version.
+ * Like local changes, received nametags are the base of layered nametags, so
+ * layers contributed on this server still apply on top of them, and only the
+ * nametags set on players are shared, not the contributions of layers.
+ */
+public final class NametagSync implements Closeable {
+    private final NametagTransport transport;
+    /** The id of this server, used to ignore its own deltas. */
+    @Getter
+    private final long origin = ThreadLocalRandom.current().nextLong();
+    private final Map<String, Binding> bindings = new Object2ObjectOpenHashMap<>();
+    private final Queue<NametagDelta> inbox = new ConcurrentLinkedQueue<>();
+    private final Consumer<byte[]> receiver = this::receive;
+    private final BukkitTask task;
+    private long clock;
+
+    /**
+     * Constructs a new sync instance and subscribes it to the transport.
+     * 
+     * @param plugin    The plugin to schedule the apply task with.
+     * @param transport The transport to share deltas through.
+     */
+    public NametagSync(Plugin plugin, NametagTransport transport) {
+        this.transport = transport;
+        this.transport.subscribe(receiver);
+        this.task = Bukkit.getScheduler().runTaskTimer(plugin, this::drain, 1L, 1L);
+    }
+
+    /**
+     * Shares the nametags of the given group under the given key. Groups with
+     * the same key on other servers receive every change of this group, and
+     * vice versa.
+     * 
+     * @param group The group to share.
+     * @param key   The network-wide key of the group.
+     */
+    public void attach(NametagGroup group, String key) {
+        if (bindings.containsKey(key))
+            throw new IllegalStateException("A group is already attached with key " + key);
+
+        val binding = new Binding(key, group.getManager());
+        bindings.put(key, binding);
+        binding.manager.addListener(binding);
+    }
+
+    /**
+     * Stops sharing the group attached under the given key.
+     * 
+     * @param key The network-wide key of the group.
+     */
+    public void detach(String key) {
+        val binding = bindings.remove(key);
+
+        if (binding != null)
+            binding.manager.removeListener(binding);
+    }
+
+    @Override
+    public void close() {
+        transport.unsubscribe(receiver);
+        task.cancel();
+
+        for (val key : bindings.keySet().toArray(new String[0]))
+            detach(key);
+    }
+
+    private void receive(byte[] message) {
+        NametagDelta delta;
+
+        try {
+            delta = NametagDelta.decode(message);
+        } catch (IllegalArgumentException exc) {
+            NametagPlugin.getInstance().getLogger().warning("Dropped nametag delta: " + exc.getMessage());
+            return;
+        }
+
+        if (delta.getOrigin() != origin)
+            inbox.add(delta);
+    }
+
+    /**
+     * Applies all queued deltas, one bulk update per group.
+     */
+    private void drain() {
+        if (inbox.isEmpty())
+            return;
+
+        val accepted = new Object2ObjectOpenHashMap<Binding, List<NametagDelta>>();
+        NametagDelta delta;
+
+        while ((delta = inbox.poll()) != null) {
+            clock = Math.max(clock, delta.getVersion());
+            val binding = bindings.get(delta.getKey());
+
+            if (binding != null && binding.accept(delta))
+                accepted.computeIfAbsent(binding, k -> new ObjectArrayList<>()).add(delta);
+        }
+
+        for (val entry : accepted.entrySet())
+            entry.getKey().apply(entry.getValue());
+    }
+
+    /**
+     * Connects one group to the transport.
+     */
+    private final class Binding implements TagListener {
+        private final String key;
+        private final NametagManager manager;
+        /**
+         * The latest {@code {version, origin}} applied for each player with a
+         * nametag.
+         */
+        private final Map<String, long[]> versions = new Object2ObjectOpenHashMap<>();
+        private boolean applying;
+
+        Binding(String key, NametagManager manager) {
+            this.key = key;
+            this.manager = manager;
+        }
+
+        boolean accept(NametagDelta delta) {
+            val current = versions.get(delta.getPlayer());
+
+            if (current != null && !delta.supersedes(current[0], current[1]))
+                return false;
+
+            versions.put(delta.getPlayer(), new long[] { delta.getVersion(), delta.getOrigin() });
+            return true;
+        }
+
+        void apply(List<NametagDelta> deltas) {
+            val tags = new Object2ObjectOpenHashMap<String, String[]>();
+            val cleared = new ObjectArrayList<String>();
+
+            // Later deltas for the same player replace earlier ones.
+            for (val delta : deltas) {
+                if (delta.isClear()) {
+                    tags.remove(delta.getPlayer());
+                    cleared.add(delta.getPlayer());
+                } else {
+                    cleared.remove(delta.getPlayer());
+                    tags.put(delta.getPlayer(), new String[] { delta.getPrefix(), delta.getSuffix() });
+                }
+            }
+
+            applying = true;
+
+            try {
+                for (val player : cleared) {
+                    manager.clear(player);
+                    versions.remove(player);
+                }
+
+                if (!tags.isEmpty())
+                    manager.restore(tags);
+            } finally {
+                applying = false;
+            }
+        }
+
+        @Override
+        public void onTagChanged(String player, @Nullable String prefix, @Nullable String suffix) {
+            if (applying)
+                return;
+
+            val version = ++clock;
+
+            if (prefix == null)
+                versions.remove(player);
+            else
+                versions.put(player, new long[] { version, origin });
+
+            transport.publish(new NametagDelta(key, origin, version, player, prefix, suffix).encode());
+        }
+
+        @Override
+        public void onReset() {
+            // The group was deleted, so nothing more is shared for it.
+            if (bindings.get(key) == this)
+                detach(key);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package io.isles.nametagapi;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.ChatColor;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+/**
+ * A compiled prefix or suffix template such as {@code "&c{health}"}. Literal
+ * parts are colour translated once at compile time, and every
+ * {@code {placeholder}} is declared as an input of the template.
+ * 
+ * @see TemplateBinding
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class NametagTemplate {
+    /** The source the template was compiled from. */
+    @Getter
+    private final String source;
+    /**
+     * Alternating literal and placeholder parts, starting with a literal.
+     * Placeholder parts hold the input name.
+     */
+    private final String[] parts;
+    /** The names of the placeholders this template depends on. */
+    @Getter
+    private final Set<String> inputs;
+
+    /**
+     * Compiles the given template. Placeholders are written as
+     * {@code {name}}, and {@code &} colour codes in literal parts are
+     * translated.
+     * 
+     * @param source The template to compile.
+     * @return The compiled template.
+     */
+    public static NametagTemplate compile(String source) {
+        val parts = new ObjectArrayList<String>();
+        val inputs = new ObjectLinkedOpenHashSet<String>();
+        int at = 0;
+
+        while (true) {
+            int open = source.indexOf('{', at);
+            int close = open == -1 ? -1 : source.indexOf('}', open);
+
+            if (close == -1) {
+                parts.add(ChatColor.translateAlternateColorCodes('&', source.substring(at)));
+                break;
+            }
+
+            val input = source.substring(open + 1, close);
+
+            if (input.isEmpty())
+                throw new IllegalArgumentException("Empty placeholder in template: " + source);
+
+            parts.add(ChatColor.translateAlternateColorCodes('&', source.substring(at, open)));
+            parts.add(input);
+            inputs.add(input);
+            at = close + 1;
+        }
+
+        return new NametagTemplate(source, parts.toArray(new String[0]), Collections.unmodifiableSet(inputs));
+    }
+
+    /**
+     * Renders this template with the given input values. Missing inputs are
+     * rendered as an empty string.
+     * 
+     * @param values The input values.
+     * @return The rendered string.
+     */
+    public String render(Map<String, String> values) {
+        val builder = new StringBuilder();
+
+        for (int i = 0; i < parts.length; i++) {
+            if ((i & 1) == 0) {
+                builder.append(parts[i]);
+                continue;
+            }
+
+            val value = values.get(parts[i]);
+
+            if (value != null)
+                builder.append(value);
+        }
+
+        return builder.toString();
+    }
+}
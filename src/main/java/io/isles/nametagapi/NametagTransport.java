@@ -0,0 +1,32 @@
+package io.isles.nametagapi;
+
+import java.util.function.Consumer;
+
+/**
+ * A message bus used by {@link NametagSync} to share nametag deltas between
+ * servers. Implementations may deliver messages on any thread, including to
+ * the subscriber that published them.
+ */
+public interface NametagTransport {
+
+    /**
+     * Publishes a message to every subscriber.
+     * 
+     * @param message The encoded message.
+     */
+    void publish(byte[] message);
+
+    /**
+     * Subscribes to the messages published on this transport.
+     * 
+     * @param receiver The receiver of every message.
+     */
+    void subscribe(Consumer<byte[]> receiver);
+
+    /**
+     * Removes a previously added subscriber.
+     * 
+     * @param receiver The receiver to remove.
+     */
+    void unsubscribe(Consumer<byte[]> receiver);
+}
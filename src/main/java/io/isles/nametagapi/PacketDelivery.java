@@ -0,0 +1,15 @@
+package io.isles.nametagapi;
+
+/**
+ * How team packets are delivered to players.
+ */
+public enum PacketDelivery {
+    /** Every packet is sent and flushed to the connection right away. */
+    IMMEDIATE,
+    /**
+     * Packets are written to each connection without flushing, and every
+     * touched connection is flushed once per tick, or when
+     * {@link NametagAPI#flushPackets()} is called.
+     */
+    BATCHED
+}
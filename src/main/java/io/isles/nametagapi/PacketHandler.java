@@ -3,9 +3,12 @@ package io.isles.nametagapi;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import org.bukkit.Bukkit;
 import org.bukkit.craftbukkit.v1_8_R3.entity.CraftPlayer;
 import org.bukkit.entity.Player;
 
+import lombok.val;
+import net.minecraft.server.v1_8_R3.NetworkManager;
 import net.minecraft.server.v1_8_R3.PacketPlayOutScoreboardTeam;
 
 /**
@@ -21,47 +24,210 @@ import net.minecraft.server.v1_8_R3.PacketPlayOutScoreboardTeam;
  */
 class PacketHandler {
 
-	private final PacketPlayOutScoreboardTeam packet;
+	/** The sink every packet is delivered through. */
+	static PacketSink sink = PacketSink.DIRECT;
+	/**
+	 * Collects packets to be merged once per tick, or {@code null} to build
+	 * every packet as it is sent.
+	 */
+	static PacketOutbox outbox;
 
-	public PacketHandler(String name, String prefix, String suffix, Collection<String> players, int paramInteger) {
-
-		this.packet = new PacketPlayOutScoreboardTeam();
-		packet.setA(name);
-		packet.setH(paramInteger);
+	/**
+	 * Whether packets to players whose connection is not writable are held
+	 * back until it drains.
+	 */
+	static boolean backpressure;
 
-		if (paramInteger == 0 || paramInteger == 2) {
-			packet.setB(name);
-			packet.setC(prefix);
-			packet.setD(suffix);
-			packet.setI(1);
-		}
+	private final String name, prefix, suffix;
+	private final Collection<String> players;
+	private final int mode;
+	private PacketPlayOutScoreboardTeam packet;
 
-		if (paramInteger == 0)
-			this.addAll(players);
+	public PacketHandler(String name, String prefix, String suffix, Collection<String> players, int paramInteger) {
+		this.name = name;
+		this.prefix = prefix;
+		this.suffix = suffix;
+		this.players = paramInteger == 0 ? players : new ArrayList<String>();
+		this.mode = paramInteger;
 	}
 
 	public PacketHandler(String name, Collection<String> players, int paramInt) {
-		this.packet = new PacketPlayOutScoreboardTeam();
-
 		if (paramInt != 3 && paramInt != 4)
 			throw new IllegalArgumentException(
 					"Method must be join or leave for player constructor");
 
-		if (players == null || players.isEmpty())
-			players = new ArrayList<String>();
+		this.name = name;
+		this.prefix = null;
+		this.suffix = null;
+		this.players = players == null ? new ArrayList<String>() : new ArrayList<String>(players);
+		this.mode = paramInt;
+	}
+
+	/**
+	 * Returns the packet, building it on first use.
+	 * 
+	 * @return The packet.
+	 */
+	PacketPlayOutScoreboardTeam getPacket() {
+		var built = packet;
+
+		if (built == null) {
+			built = new PacketPlayOutScoreboardTeam();
+			built.setA(name);
+			built.setH(mode);
+
+			if (mode == 0 || mode == 2) {
+				built.setB(name);
+				built.setC(prefix);
+				built.setD(suffix);
+				built.setI(1);
+			}
+
+			addAll(built, mode == 3 || mode == 4 ? resolveNames(players) : players);
+			packet = built;
+		}
+
+		return built;
+	}
+
+	/**
+	 * Merges this join or leave packet with the next one sent to the same
+	 * player, if both move players into or out of the same team.
+	 * 
+	 * @param next The packet sent right after this one.
+	 * @return A packet with the players of both, or {@code null} if they
+	 *         cannot be merged.
+	 */
+	PacketHandler merge(PacketHandler next) {
+		if ((mode != 3 && mode != 4) || mode != next.mode || !name.equals(next.name))
+			return null;
 
-		packet.setA(name);
-		packet.setH(paramInt);
-		this.addAll(players);
+		val merged = new ArrayList<String>(players.size() + next.players.size());
+		merged.addAll(players);
+		merged.addAll(next.players);
+		return new PacketHandler(name, merged, mode);
+	}
+
+	/**
+	 * Switches how packets are delivered, first delivering every packet held
+	 * back by the current sink.
+	 * 
+	 * @param delivery The delivery mode.
+	 */
+	static void setDelivery(PacketDelivery delivery) {
+		if (delivery == getDelivery())
+			return;
+
+		if (outbox != null)
+			outbox.flush(sink);
+
+		sink.drain();
+		sink = delivery == PacketDelivery.BATCHED ? new BatchedPacketSink() : PacketSink.DIRECT;
+	}
+
+	static PacketDelivery getDelivery() {
+		return sink instanceof BatchedPacketSink ? PacketDelivery.BATCHED : PacketDelivery.IMMEDIATE;
+	}
+
+	/**
+	 * Delivers the packets held back by the current sink. Packets to players
+	 * whose connection is not writable stay held back until it drains.
+	 */
+	static void flush() {
+		if (outbox != null)
+			outbox.flush(sink);
+
+		sink.flush();
+	}
+
+	/**
+	 * Enables or disables merging the packets sent to each player once per
+	 * tick, first delivering any packets already collected.
+	 * 
+	 * @param merged Whether to merge packets when they are flushed.
+	 */
+	static void setMerged(boolean merged) {
+		if (merged == (outbox != null))
+			return;
+
+		if (merged) {
+			outbox = new PacketOutbox();
+			return;
+		}
+
+		outbox.drain(sink);
+		outbox = null;
+	}
+
+	static boolean isMerged() {
+		return outbox != null;
+	}
+
+	/**
+	 * Returns whether packets can be sent to the given player, that is,
+	 * backpressure is off or the player's connection is writable.
+	 * 
+	 * @param viewer The player.
+	 * @return {@code false} if packets to the player should be held back.
+	 */
+	static boolean isWritable(Player viewer) {
+		if (!backpressure || !(viewer instanceof CraftPlayer craftPlayer))
+			return true;
+
+		return isWritable(craftPlayer.getHandle().playerConnection.networkManager);
+	}
+
+	/**
+	 * Returns whether packets can be written to the given connection, that
+	 * is, backpressure is off or its channel is writable.
+	 * 
+	 * @param networkManager The connection.
+	 * @return {@code false} if packets to the connection should be held back.
+	 */
+	static boolean isWritable(NetworkManager networkManager) {
+		return !backpressure || networkManager == null || networkManager.channel == null
+				|| networkManager.channel.isWritable();
 	}
 
 	public void sendToPlayer(Player bukkitPlayer) {
-		if (bukkitPlayer instanceof CraftPlayer craftPlayer)
-			craftPlayer.getHandle().playerConnection.sendPacket(packet);
+		if (outbox != null)
+			outbox.add(bukkitPlayer, this);
+		else
+			sink.send(bukkitPlayer, getPacket());
+	}
+
+	/**
+	 * Returns the names of the given players as known by the server. Without
+	 * a running server, such as during a simulated replay, the names are used
+	 * as given. Only called on the main thread, when the packet is built.
+	 * 
+	 * @param players The players.
+	 * @return The players' names.
+	 */
+	private static Collection<String> resolveNames(Collection<String> players) {
+		if (Bukkit.getServer() == null)
+			return players;
+
+		val names = new ArrayList<String>(players.size());
+
+		for (val player : players) {
+			val online = Bukkit.getPlayerExact(player);
+
+			if (online != null) {
+				names.add(online.getName());
+				continue;
+			}
+
+			@SuppressWarnings("deprecation")
+			val offline = Bukkit.getOfflinePlayer(player);
+			names.add(offline.getName());
+		}
+
+		return names;
 	}
 
 	@SuppressWarnings("all")
-	private void addAll(Collection<String> col) {
+	private static void addAll(PacketPlayOutScoreboardTeam packet, Collection<String> col) {
 		packet.getG().addAll(col);
 	}
 }
\ No newline at end of file
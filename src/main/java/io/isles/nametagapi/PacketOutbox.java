@@ -0,0 +1,95 @@
+package io.isles.nametagapi;
+
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.entity.Player;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import lombok.val;
+
+/**
+ * Collects the team packets sent during a tick and merges them when flushed:
+ * consecutive joins and leaves of the same team sent to a player become one
+ * packet. The merged packets are handed to the sink in the order they were
+ * sent.
+ * 
+ * <br>
+ * <br>
+ * 
+ * Writability is checked when the packets are flushed rather than when they
+ * are collected, as a connection can fill up during the tick. The packets of
+ * a player whose connection is not writable are kept, merged, for the next
+ * flush, and later packets queue behind them so the order is kept. The
+ * outbox only holds what was collected before the connection filled up:
+ * after that, {@link NametagManager} stops sending to the player and catches
+ * them up once the connection drains.
+ */
+final class PacketOutbox {
+    private final Map<Player, List<PacketHandler>> queued = new Object2ObjectLinkedOpenHashMap<>();
+
+    void add(Player player, PacketHandler packet) {
+        queued.computeIfAbsent(player, k -> new ObjectArrayList<>()).add(packet);
+    }
+
+    /**
+     * Merges the collected packets and hands them to the given sink, holding
+     * back the packets of players whose connection is not writable. Must be
+     * called from the main thread.
+     * 
+     * @param sink The sink to deliver the packets through.
+     */
+    void flush(PacketSink sink) {
+        flush(sink, true);
+    }
+
+    /**
+     * Merges every collected packet and hands it to the given sink, writable
+     * or not. Must be called from the main thread.
+     * 
+     * @param sink The sink to deliver the packets through.
+     */
+    void drain(PacketSink sink) {
+        flush(sink, false);
+    }
+
+    private void flush(PacketSink sink, boolean holdBack) {
+        if (queued.isEmpty())
+            return;
+
+        val iterator = queued.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            val entry = iterator.next();
+            val player = entry.getKey();
+            val merged = merge(entry.getValue());
+
+            if (holdBack && player.isOnline() && !PacketHandler.isWritable(player)) {
+                entry.setValue(merged);
+                continue;
+            }
+
+            iterator.remove();
+
+            for (val packet : merged)
+                sink.send(player, packet.getPacket());
+        }
+    }
+
+    private static List<PacketHandler> merge(List<PacketHandler> packets) {
+        val merged = new ObjectArrayList<PacketHandler>(packets.size());
+
+        for (val packet : packets) {
+            val last = merged.isEmpty() ? null : merged.top();
+            val both = last == null ? null : last.merge(packet);
+
+            if (both != null)
+                merged.set(merged.size() - 1, both);
+            else
+                merged.add(packet);
+        }
+
+        return merged;
+    }
+}
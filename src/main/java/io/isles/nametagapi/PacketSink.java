@@ -0,0 +1,41 @@
+package io.isles.nametagapi;
+
+import org.bukkit.craftbukkit.v1_8_R3.entity.CraftPlayer;
+import org.bukkit.entity.Player;
+
+import net.minecraft.server.v1_8_R3.PacketPlayOutScoreboardTeam;
+
+/**
+ * Delivers team packets built by a {@link PacketHandler} to a viewer.
+ */
+interface PacketSink {
+
+	/** Sends every packet straight through the player's connection. */
+	PacketSink DIRECT = (viewer, packet) -> {
+		if (viewer instanceof CraftPlayer craftPlayer)
+			craftPlayer.getHandle().playerConnection.sendPacket(packet);
+	};
+
+	/**
+	 * Delivers a packet to the given viewer.
+	 * 
+	 * @param viewer The player to deliver the packet to.
+	 * @param packet The packet to deliver.
+	 */
+	void send(Player viewer, PacketPlayOutScoreboardTeam packet);
+
+	/**
+	 * Delivers the packets this sink holds back, if any. Packets to
+	 * connections that are not writable may stay held back, see
+	 * {@link PacketHandler#isWritable(Player)}.
+	 */
+	default void flush() {
+	}
+
+	/**
+	 * Delivers every packet this sink holds back, writable or not.
+	 */
+	default void drain() {
+		flush();
+	}
+}
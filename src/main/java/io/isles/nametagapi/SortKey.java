@@ -0,0 +1,47 @@
+package io.isles.nametagapi;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.val;
+
+/**
+ * Encodes tab list sort weights into the first characters of team names. The
+ * 1.8 client orders the tab list by team name, so the key is written in an
+ * alphabet whose characters are in ASCII order, making lower weights sort
+ * first.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class SortKey {
+    private static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+    /** The amount of characters in a key. */
+    static final int LENGTH = 3;
+    /** The amount of distinct weights. */
+    static final int SPACE = ALPHABET.length() * ALPHABET.length() * ALPHABET.length();
+    static final int MIN = 0;
+    static final int MAX = SPACE - 1;
+    /** The weight of teams that were not given one, halfway through the space. */
+    static final int DEFAULT = SPACE / 2;
+
+    /**
+     * Encodes a weight.
+     * 
+     * @param weight The weight, between {@link #MIN} and {@link #MAX}.
+     * @return The key.
+     */
+    static String encode(int weight) {
+        check(weight);
+        val chars = new char[LENGTH];
+
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET.charAt(weight % ALPHABET.length());
+            weight /= ALPHABET.length();
+        }
+
+        return new String(chars);
+    }
+
+    static void check(int weight) {
+        if (weight < MIN || weight > MAX)
+            throw new IllegalArgumentException("Sort weight must be between " + MIN + " and " + MAX + ": " + weight);
+    }
+}
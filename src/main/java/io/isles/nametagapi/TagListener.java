@@ -0,0 +1,46 @@
+package io.isles.nametagapi;
+
+import javax.annotation.Nullable;
+
+/**
+ * Receives the nametags applied by a {@link NametagManager}, after the
+ * packets for the change have been sent. An animated player is reported
+ * with the frame shown when the animation started; later frames are not
+ * reported.
+ * 
+ * <br>
+ * <br>
+ * 
+ * Unless the listener {@link #followsLayers() follows layers}, a player with
+ * a layered nametag is reported with the base nametag set on them, and the
+ * contributions of layers are not reported.
+ */
+interface TagListener {
+
+    /**
+     * Called when the nametag of a player changed.
+     * 
+     * @param player The player whose nametag changed.
+     * @param prefix The new prefix, or {@code null} if the nametag was cleared.
+     * @param suffix The new suffix, or {@code null} if the nametag was cleared.
+     */
+    void onTagChanged(String player, @Nullable String prefix, @Nullable String suffix);
+
+    /**
+     * Returns whether this listener is told about the nametags players are
+     * shown, including the contributions of layers, rather than about the
+     * nametags set on them.
+     * 
+     * @return {@code true} to follow the resolved layered nametags.
+     */
+    default boolean followsLayers() {
+        return false;
+    }
+
+    /**
+     * Called when the manager was reset because its group was deleted or the
+     * plugin was disabled. No more changes are reported afterwards.
+     */
+    default void onReset() {
+    }
+}
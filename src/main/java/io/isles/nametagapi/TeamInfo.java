@@ -2,15 +2,22 @@ package io.isles.nametagapi;
 
 import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.RequiredArgsConstructor;
 
 /**
  * Represents a scoreboard team, used in the NametagManager
- * object.
+ * object. Teams are identified by name only, so the prefix and suffix can be
+ * changed in place while the team is used as a map key.
  */
 @RequiredArgsConstructor(access = AccessLevel.PACKAGE)
 @Data
+@EqualsAndHashCode(of = "name")
 class TeamInfo {
     private final String name;
     private String prefix, suffix;
+    /** The index of this team in the client ledgers of its manager. */
+    private int slot = -1;
+    /** The tab list sort weight encoded at the start of the name. */
+    private int weight = SortKey.DEFAULT;
 }
\ No newline at end of file
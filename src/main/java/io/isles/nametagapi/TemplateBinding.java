@@ -0,0 +1,140 @@
+package io.isles.nametagapi;
+
+import java.util.Map;
+
+import org.bukkit.Bukkit;
+
+import gg.mineral.api.nametag.NametagGroup;
+import io.isles.nametagapi.NametagChangeEvent.NametagChangeReason;
+import io.isles.nametagapi.NametagChangeEvent.NametagChangeType;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import lombok.Getter;
+import lombok.val;
+
+/**
+ * Binds a {@link NametagTemplate} to the prefix or suffix of one player. The
+ * template is re-rendered only when one of its inputs changes, and the result
+ * is applied only when the rendered string differs from the previous one.
+ * Players that render to the same value share a team through the regular team
+ * lookup of the {@link NametagManager}.
+ * 
+ * <br>
+ * <br>
+ * 
+ * Bindings must be updated from the main thread.
+ */
+public final class TemplateBinding {
+    @Getter
+    private final NametagGroup group;
+    @Getter
+    private final String player;
+    @Getter
+    private final Slot slot;
+    @Getter
+    private final NametagTemplate template;
+    private final Map<String, String> values = new Object2ObjectOpenHashMap<>();
+    private String rendered;
+    @Getter
+    private boolean bound = true;
+
+    TemplateBinding(NametagGroup group, String player, Slot slot, NametagTemplate template) {
+        this.group = group;
+        this.player = player;
+        this.slot = slot;
+        this.template = template;
+    }
+
+    /**
+     * Sets the value of a template input. Inputs the template does not depend
+     * on are ignored, so callers can publish every value they know about.
+     * 
+     * @param input The input name.
+     * @param value The new value.
+     */
+    public void set(String input, Object value) {
+        if (bound && assign(input, value))
+            apply();
+    }
+
+    /**
+     * Sets the values of several template inputs, re-rendering at most once.
+     * 
+     * @param values The input values to set.
+     */
+    public void setAll(Map<String, ?> values) {
+        if (!bound)
+            return;
+
+        boolean changed = false;
+
+        for (val entry : values.entrySet())
+            changed |= assign(entry.getKey(), entry.getValue());
+
+        if (changed)
+            apply();
+    }
+
+    /**
+     * Stops updating the player's nametag. The last rendered value stays
+     * applied.
+     */
+    public void unbind() {
+        bound = false;
+    }
+
+    /**
+     * Returns the value last applied to the player.
+     * 
+     * @return The rendered value, or {@code null} if nothing was applied yet.
+     */
+    public String getRendered() {
+        return rendered;
+    }
+
+    private boolean assign(String input, Object value) {
+        if (!template.getInputs().contains(input))
+            return false;
+
+        val string = String.valueOf(value);
+        return !string.equals(values.put(input, string));
+    }
+
+    /**
+     * Renders the template and applies it if the result changed, unless the
+     * binding was unbound. Called for the first render, which is scheduled
+     * when the binding is created.
+     */
+    void applyIfBound() {
+        if (bound)
+            apply();
+    }
+
+    /**
+     * Renders the template and applies it if the result changed.
+     */
+    private void apply() {
+        val value = template.render(values);
+
+        if (value.equals(rendered))
+            return;
+
+        val manager = group.getManager();
+        val prefix = slot == Slot.PREFIX ? value : manager.getPrefix(player);
+        val suffix = slot == Slot.SUFFIX ? value : manager.getSuffix(player);
+        val event = new NametagChangeEvent(player, manager.getPrefix(player), manager.getSuffix(player), prefix,
+                suffix, NametagChangeType.HARD,
+                slot == Slot.PREFIX ? NametagChangeReason.SET_PREFIX : NametagChangeReason.SET_SUFFIX);
+        Bukkit.getServer().getPluginManager().callEvent(event);
+
+        if (event.isCancelled())
+            return;
+
+        rendered = value;
+        manager.overlap(player, event.getPrefix(), event.getSuffix());
+    }
+
+    /** The part of the nametag a template is bound to. */
+    public enum Slot {
+        PREFIX, SUFFIX
+    }
+}
@@ -0,0 +1,146 @@
+package io.isles.nametagapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import lombok.val;
+
+class CompactMapTest {
+    @Test
+    void storesEntriesInline() {
+        val map = new CompactMap<String, Integer>();
+
+        assertTrue(map.isEmpty());
+        assertNull(map.put("a", 1));
+        assertNull(map.put("b", 2));
+        assertEquals(1, map.put("a", 3));
+        assertEquals(3, map.get("a"));
+        assertEquals(2, map.size());
+        assertTrue(map.containsKey("b"));
+        assertFalse(map.containsKey("c"));
+        assertEquals(2, map.remove("b"));
+        assertNull(map.remove("b"));
+        assertEquals(Map.of("a", 3), map);
+    }
+
+    @Test
+    void movesToHashTablePastThreshold() {
+        val map = new CompactMap<Integer, String>();
+
+        for (int i = 0; i <= CompactMap.THRESHOLD; i++)
+            map.put(i, "v" + i);
+
+        assertEquals(CompactMap.THRESHOLD + 1, map.size());
+
+        for (int i = 0; i <= CompactMap.THRESHOLD; i++)
+            assertEquals("v" + i, map.get(i));
+
+        map.remove(0);
+        assertNull(map.get(0));
+        assertEquals(CompactMap.THRESHOLD, map.size());
+    }
+
+    @Test
+    void clearReleasesStorage() {
+        val map = new CompactMap<Integer, Integer>();
+        val empty = map.estimateFootprint();
+
+        for (int i = 0; i < 20; i++)
+            map.put(i, i);
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(empty, map.estimateFootprint());
+        map.put(1, 1);
+        assertEquals(1, map.get(1));
+    }
+
+    @Test
+    void iteratorRemovesAndUpdatesEntries() {
+        val map = new CompactMap<String, Integer>();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("c", 3);
+
+        val iterator = map.entrySet().iterator();
+        assertThrows(IllegalStateException.class, iterator::remove);
+
+        while (iterator.hasNext()) {
+            val entry = iterator.next();
+
+            if (entry.getKey().equals("b"))
+                iterator.remove();
+            else
+                entry.setValue(entry.getValue() * 10);
+        }
+
+        assertThrows(NoSuchElementException.class, iterator::next);
+        assertEquals(Map.of("a", 10, "c", 30), map);
+    }
+
+    @Test
+    void behavesLikeHashMap() {
+        val random = new Random(42);
+        val expected = new HashMap<Integer, Integer>();
+        val map = new CompactMap<Integer, Integer>();
+
+        for (int i = 0; i < 20_000; i++) {
+            // Few distinct keys keep the map around the threshold.
+            int key = random.nextInt(12);
+
+            switch (random.nextInt(4)) {
+                case 0, 1 -> assertEquals(expected.put(key, i), map.put(key, i));
+                case 2 -> assertEquals(expected.remove(key), map.remove(key));
+                default -> assertEquals(expected.get(key), map.get(key));
+            }
+
+            if (random.nextInt(1000) == 0) {
+                expected.clear();
+                map.clear();
+            }
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        assertEquals(expected, map);
+    }
+
+    @Test
+    void emptyMapAllocatesNothing() {
+        assertEquals(Footprint.shallow(CompactMap.class), new CompactMap<>().estimateFootprint());
+    }
+
+    @Test
+    void smallGroupsAreSmallerThanWithHashMaps() {
+        // A group with a few players: the player map of the group and the
+        // eight maps of its manager, most of which stay empty.
+        int[] sizes = { 4, 2, 4, 0, 0, 0, 0, 0, 4 };
+        long before = 0, after = 0;
+
+        for (int size : sizes) {
+            val map = new CompactMap<Integer, Integer>();
+
+            for (int i = 0; i < size; i++)
+                map.put(i, i);
+
+            // Before, each map was a fastutil hash map sized for the default
+            // of 16 entries.
+            before += Footprint.hash(Object2ObjectOpenHashMap.class, Math.max(size, 16), Footprint.REFERENCE,
+                    Footprint.REFERENCE);
+            after += map.estimateFootprint();
+        }
+
+        assertTrue(after * 4 < before, "Compact maps take " + after + " bytes, hash maps " + before);
+    }
+}
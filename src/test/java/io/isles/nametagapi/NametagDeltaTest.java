@@ -0,0 +1,68 @@
+package io.isles.nametagapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import lombok.val;
+
+class NametagDeltaTest {
+    @Test
+    void roundTripsTags() {
+        val delta = new NametagDelta("lobby", 42L, 7L, "Alice", "§c[A] ", " §7✦");
+        val decoded = NametagDelta.decode(delta.encode());
+
+        assertEquals(delta, decoded);
+        assertFalse(decoded.isClear());
+    }
+
+    @Test
+    void roundTripsClears() {
+        val delta = new NametagDelta("lobby", 42L, 8L, "Alice", null, null);
+        val decoded = NametagDelta.decode(delta.encode());
+
+        assertEquals(delta, decoded);
+        assertTrue(decoded.isClear());
+    }
+
+    @Test
+    void roundTripsEmptyTags() {
+        val delta = new NametagDelta("", Long.MIN_VALUE, Long.MAX_VALUE, "Bob", "", "");
+
+        assertEquals(delta, NametagDelta.decode(delta.encode()));
+    }
+
+    @Test
+    void clearsAreSmallerThanTags() {
+        val set = new NametagDelta("lobby", 1L, 1L, "Alice", "", "");
+        val clear = new NametagDelta("lobby", 1L, 1L, "Alice", null, null);
+
+        // A clear writes no prefix or suffix, only the presence flag.
+        assertEquals(set.encode().length - 4, clear.encode().length);
+    }
+
+    @Test
+    void rejectsTruncatedMessages() {
+        val encoded = new NametagDelta("lobby", 1L, 1L, "Alice", "[A] ", "").encode();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> NametagDelta.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> NametagDelta.decode(new byte[0]));
+    }
+
+    @Test
+    void ordersByVersionThenOrigin() {
+        val delta = new NametagDelta("lobby", 5L, 10L, "Alice", null, null);
+
+        assertTrue(delta.supersedes(9L, 100L));
+        assertFalse(delta.supersedes(11L, 0L));
+        assertTrue(delta.supersedes(10L, 4L));
+        assertFalse(delta.supersedes(10L, 5L));
+        assertFalse(delta.supersedes(10L, 6L));
+    }
+}
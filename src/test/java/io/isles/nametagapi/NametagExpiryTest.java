@@ -0,0 +1,81 @@
+package io.isles.nametagapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import lombok.val;
+
+class NametagExpiryTest {
+    private final NametagExpiry expiry = new NametagExpiry();
+    private final List<NametagExpiry.Timer> expired = new ArrayList<>();
+
+    // Returns the amount of ticks until the timer expired, or -1 if it did
+    // not within the limit.
+    private long ticksUntilExpired(NametagExpiry.Timer timer, long limit) {
+        for (long tick = 1; tick <= limit; tick++) {
+            expiry.tick(expired::add);
+
+            if (expired.remove(timer))
+                return tick;
+        }
+
+        return -1;
+    }
+
+    @Test
+    void expiresOnTheScheduledTick() {
+        // Around the bucket count, where the rounds and index calculation
+        // wrap, and well past it.
+        long[] delays = { 1, 2, 100, 511, 512, 513, 1023, 1024, 1025, 5000 };
+
+        for (val ticks : delays) {
+            val timer = expiry.schedule(null, "Alice", ticks);
+            assertEquals(ticks, ticksUntilExpired(timer, ticks + 1024), "Scheduled " + ticks + " ticks away");
+        }
+    }
+
+    @Test
+    void expiresOnTheScheduledTickFromAnyCursor() {
+        for (int offset = 0; offset < 600; offset += 37) {
+            for (int i = 0; i < offset; i++)
+                expiry.tick(expired::add);
+
+            for (val ticks : new long[] { 1, 512, 513 }) {
+                val timer = expiry.schedule(null, "Alice", ticks);
+                assertEquals(ticks, ticksUntilExpired(timer, ticks + 1024),
+                        "Scheduled " + ticks + " ticks away after " + offset + " ticks");
+            }
+        }
+    }
+
+    @Test
+    void timersInTheSameBucketWaitForTheirRound() {
+        val soon = expiry.schedule(null, "Alice", 3);
+        val later = expiry.schedule(null, "Bob", 3 + 512);
+        val latest = expiry.schedule(null, "Carol", 3 + 2 * 512);
+
+        assertEquals(3, ticksUntilExpired(soon, 3));
+        assertEquals(512, ticksUntilExpired(later, 512));
+        assertEquals(512, ticksUntilExpired(latest, 512));
+    }
+
+    @Test
+    void cancelledTimersDoNotExpire() {
+        val timer = expiry.schedule(null, "Alice", 10);
+        timer.cancel();
+
+        assertEquals(-1, ticksUntilExpired(timer, 1024));
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    void rejectsDelaysBelowOneTick() {
+        assertThrows(IllegalArgumentException.class, () -> expiry.schedule(null, "Alice", 0));
+    }
+}
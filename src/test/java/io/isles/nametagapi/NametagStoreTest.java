@@ -0,0 +1,149 @@
+package io.isles.nametagapi;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import lombok.val;
+
+class NametagStoreTest {
+    @TempDir
+    Path dir;
+
+    private File file() {
+        return dir.resolve("nametags.dat").toFile();
+    }
+
+    @Test
+    void restoresTagsAfterReopening() throws IOException {
+        try (val store = NametagStore.open(file())) {
+            store.record("lobby", "Alice", "[A] ", "");
+            store.record("lobby", "Bob", "", " [B]");
+            store.record("arena", "Alice", "red ", " x");
+        }
+
+        try (val store = NametagStore.open(file())) {
+            assertArrayEquals(new String[] { "[A] ", "" }, store.getSaved("lobby").get("Alice"));
+            assertArrayEquals(new String[] { "", " [B]" }, store.getSaved("lobby").get("Bob"));
+            assertArrayEquals(new String[] { "red ", " x" }, store.getSaved("arena").get("Alice"));
+        }
+    }
+
+    @Test
+    void replaysLaterChangesOverEarlierOnes() throws IOException {
+        try (val store = NametagStore.open(file())) {
+            store.record("lobby", "Alice", "first ", "");
+            store.record("lobby", "Alice", "second ", "");
+            store.record("lobby", "Bob", "[B] ", "");
+            store.record("lobby", "Bob", null, null);
+        }
+
+        try (val store = NametagStore.open(file())) {
+            val saved = store.getSaved("lobby");
+            assertEquals(1, saved.size());
+            assertArrayEquals(new String[] { "second ", "" }, saved.get("Alice"));
+        }
+    }
+
+    @Test
+    void discardDropsTheGroup() throws IOException {
+        try (val store = NametagStore.open(file())) {
+            store.record("lobby", "Alice", "[A] ", "");
+            store.record("arena", "Bob", "[B] ", "");
+            store.discard("lobby");
+            // Records after a discard start the key from scratch.
+            store.record("lobby", "Carol", "[C] ", "");
+        }
+
+        try (val store = NametagStore.open(file())) {
+            assertEquals(1, store.getSaved("lobby").size());
+            assertArrayEquals(new String[] { "[C] ", "" }, store.getSaved("lobby").get("Carol"));
+            assertArrayEquals(new String[] { "[B] ", "" }, store.getSaved("arena").get("Bob"));
+        }
+    }
+
+    @Test
+    void compactionKeepsOnlyTheLiveState() throws IOException {
+        // Compacting on the calling thread makes the swap happen on the next
+        // record instead of whenever the compaction thread gets to it.
+        try (val store = NametagStore.open(file(), Runnable::run)) {
+            for (int i = 0; i < 10_000; i++)
+                store.record("lobby", "Alice", "tag" + i + " ", "");
+
+            store.flush();
+            // Without compaction the log would hold every one of the records.
+            assertTrue(file().length() < 2_000 * 16, "Log was not compacted: " + file().length() + " bytes");
+        }
+
+        try (val store = NametagStore.open(file())) {
+            assertArrayEquals(new String[] { "tag9999 ", "" }, store.getSaved("lobby").get("Alice"));
+        }
+    }
+
+    @Test
+    void dropsPartiallyWrittenTrailingRecord() throws IOException {
+        try (val store = NametagStore.open(file())) {
+            store.record("lobby", "Alice", "[A] ", "");
+            store.flush();
+            val complete = file().length();
+            store.record("lobby", "Bob", "[B] ", "");
+            store.flush();
+
+            try (val raf = new RandomAccessFile(file(), "rw")) {
+                raf.setLength(complete + 5);
+            }
+        }
+
+        try (val store = NametagStore.open(file())) {
+            assertArrayEquals(new String[] { "[A] ", "" }, store.getSaved("lobby").get("Alice"));
+            assertNull(store.getSaved("lobby").get("Bob"));
+        }
+    }
+
+    @Test
+    void truncatesTheLogAtACorruptRecord() throws IOException {
+        try (val store = NametagStore.open(file())) {
+            store.record("lobby", "Alice", "[A] ", "");
+            store.flush();
+            val complete = file().length();
+            store.record("lobby", "Bob", "[B] ", "");
+            store.flush();
+
+            try (val raf = new RandomAccessFile(file(), "rw")) {
+                raf.seek(complete);
+                raf.writeByte(42);
+            }
+        }
+
+        try (val store = NametagStore.open(file())) {
+            assertArrayEquals(new String[] { "[A] ", "" }, store.getSaved("lobby").get("Alice"));
+            assertNull(store.getSaved("lobby").get("Bob"));
+        }
+
+        // The corrupt record was dropped from the log, not just skipped.
+        try (val store = NametagStore.open(file())) {
+            store.record("lobby", "Carol", "[C] ", "");
+        }
+
+        try (val store = NametagStore.open(file())) {
+            assertEquals(2, store.getSaved("lobby").size());
+        }
+    }
+
+    @Test
+    void rejectsForeignFiles() throws IOException {
+        Files.write(file().toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        assertThrows(IOException.class, () -> NametagStore.open(file()));
+    }
+}
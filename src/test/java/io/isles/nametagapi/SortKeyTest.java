@@ -0,0 +1,43 @@
+package io.isles.nametagapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import lombok.val;
+
+class SortKeyTest {
+    @Test
+    void encodesBounds() {
+        assertEquals("000", SortKey.encode(SortKey.MIN));
+        assertEquals("zzz", SortKey.encode(SortKey.MAX));
+        assertEquals("V00", SortKey.encode(SortKey.DEFAULT));
+    }
+
+    @Test
+    void keysHaveFixedLength() {
+        for (int weight = SortKey.MIN; weight <= SortKey.MAX; weight += 997)
+            assertEquals(SortKey.LENGTH, SortKey.encode(weight).length());
+    }
+
+    @Test
+    void lowerWeightsSortFirst() {
+        var previous = SortKey.encode(SortKey.MIN);
+
+        for (int weight = SortKey.MIN + 1; weight <= SortKey.MAX; weight++) {
+            val key = SortKey.encode(weight);
+            // The client compares team names with String#compareTo.
+            assertTrue(previous.compareTo(key) < 0, previous + " does not sort before " + key);
+            previous = key;
+        }
+    }
+
+    @Test
+    void rejectsWeightsOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> SortKey.encode(SortKey.MIN - 1));
+        assertThrows(IllegalArgumentException.class, () -> SortKey.encode(SortKey.MAX + 1));
+        assertThrows(IllegalArgumentException.class, () -> SortKey.check(Integer.MIN_VALUE));
+    }
+}